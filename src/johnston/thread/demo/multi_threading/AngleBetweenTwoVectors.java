@@ -1,47 +1,88 @@
 package johnston.thread.demo.multi_threading;
 
-import java.util.Random;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Given coordinates of two vector, calculate their angle. This is achieved by:
  * arcs(beta) = a * b / (|a| * |b|).
  *
  * This calculation is computationally heavy task.
+ *
+ * The thread pool lives as long as this object, or is given by the caller and can be shared with
+ * other engines. Close this object to shut down the pool it owns.
  */
-public class AngleBetweenTwoVectors {
+public class AngleBetweenTwoVectors implements AutoCloseable {
   private static final int DEFAULT_VECTOR_LENGTH = 10000;
   private static final int DEFAULT_VECTOR_ENTRY_MIN = -10;
   private static final int DEFAULT_VECTOR_ENTRY_MAX = 10;
   private static final int DEFAULT_THREAD_AMOUNT = 4;
   private static final int DEFAULT_CPU_CORE_AMOUNT = 4;
+  private static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+  // Doubles between two partial sum slots. 128 bytes, so two slots never share a cache line
+  // (or a pair of lines fetched together), wherever the array begins.
+  private static final int PARTIAL_SLOT_STRIDE = 16;
+  // Elements summed naively before being added to the compensated sum
+  private static final int COMPENSATED_BLOCK_SIZE = 64;
+  // Largest region of a vector file mapped at a time
+  private static final long MAX_MAPPED_REGION_BYTES = 1L << 30;
 
-  private static Random random;
   private int threadAmount = DEFAULT_THREAD_AMOUNT;
   private int cpuCoreAmount = DEFAULT_CPU_CORE_AMOUNT;
-
-  public static double[] getRandomVector(int length, double entryMin, double entryMax) {
-    double[] result = new double[length];
-
-    for (int i = 0; i < result.length; i++) {
-      result[i] = getRandom(entryMin, entryMax);
-    }
-    return result;
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+  private boolean compensatedSummation = false;
+  private final boolean ownsThreadPool;
+  private ExecutorService threadPool;
+
+  /**
+   * Create a thread pool of cpuCoreAmount threads on first use.
+   */
+  public AngleBetweenTwoVectors() {
+    this.ownsThreadPool = true;
   }
 
-  private static double getRandom(double minVal, double maxVal) {
-    if (maxVal < minVal) {
-      throw new ArithmeticException("Max val is smaller than min val");
+  /**
+   * Use the given thread pool with the given amount of working threads. The pool is not shut
+   * down by close().
+   */
+  public AngleBetweenTwoVectors(ExecutorService threadPool, int threadAmount) {
+    if (threadPool == null) {
+      throw new IllegalArgumentException("Thread pool must not be null");
     }
+    validateThreadAmount(threadAmount);
 
-    if (random == null) {
-      // Ignore the data racing here, since it won't breaking anything...
-      random = new Random(System.currentTimeMillis());
-    }
+    this.ownsThreadPool = false;
+    this.threadPool = threadPool;
+    this.threadAmount = threadAmount;
+  }
 
-    return random.nextDouble() * (maxVal - minVal) + minVal;
+  public static double[] getRandomVector(int length, double entryMin, double entryMax) {
+    return getRandomVector(length, entryMin, entryMax, ParallelRandomGenerator.newSeed());
+  }
+
+  /**
+   * Generate a random vector in parallel. The same seed always gives the same vector.
+   */
+  public static double[] getRandomVector(int length, double entryMin, double entryMax,
+                                         long seed) {
+    double[] result = new double[length];
+    ParallelRandomGenerator.fillDoubles(result, entryMin, entryMax, seed);
+    return result;
   }
 
   public static double getAngleBetweenTwoVectors(double[] vecA, double[] vecB) {
@@ -146,25 +187,494 @@ public class AngleBetweenTwoVectors {
     int subTaskEntries = (vecA.length + 1) / threadAmount;
     CalculateAngleBetweenTwoVectorThread calculationThread =
         new CalculateAngleBetweenTwoVectorThread("Calculation Thread", vecA, vecB, subTaskEntries);
-    ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
-        cpuCoreAmount,
-        cpuCoreAmount * 2,
-        10,
-        TimeUnit.MILLISECONDS,
-        new LinkedBlockingDeque<>(threadAmount),
-        new ThreadPoolExecutor.CallerRunsPolicy() // Thread who submit task run task itself.
-    );
 
-    for (int i = 0; i < threadAmount; i++) {
-      threadPool.execute(calculationThread);
+    runOnThreadPool(calculationThread);
+    return calculationThread.getAngle();
+  }
+
+  /**
+   * Thread class which calculates the three sums without locking. The vectors are split into
+   * chunks of fixed size, and working threads claim chunks by an atomic counter. Each chunk writes
+   * its three partial sums into its own slot, and the slots are padded so that threads don't write
+   * to the same cache line (false sharing). Partial sums are combined once at the end in chunk
+   * order, so the result only depends on the chunk size, not on which thread did which chunk.
+   *
+   * With compensated summation, each chunk sums blocks of 64 elements naively, then adds the
+   * block sums by Neumaier's algorithm, which keeps the rounding error of each addition in a
+   * second variable. Chunk sums are then combined pairwise as a balanced tree, whose error grows
+   * with log(chunks) instead of chunks.
+   *
+   * Subclasses decide where the entries are read from and how chunks are claimed.
+   */
+  abstract static class ReductionThread extends Thread {
+    protected final int length;
+    protected final int chunkSize;
+    protected final int chunkAmount;
+    private final boolean compensated;
+    private final double[] partials;
+
+    ReductionThread(String name, int length, int chunkSize, boolean compensated) {
+      super(name);
+      if (chunkSize <= 0) {
+        throw new IllegalArgumentException("Chunk size must be positive");
+      }
+
+      this.length = length;
+      this.chunkSize = chunkSize;
+      this.compensated = compensated;
+      this.chunkAmount = (length + chunkSize - 1) / chunkSize;
+      this.partials = new double[chunkAmount * PARTIAL_SLOT_STRIDE];
+    }
+
+    /**
+     * Naive sums of entries [begin, end), written into sums[0...2] as a * b, |a|^2 and |b|^2.
+     */
+    interface RangeSummer {
+      void sum(int begin, int end, double[] sums);
+    }
+
+    /**
+     * Sum up the chunk [begin, end) and store it into the slot of the chunk. The summer takes
+     * indices relative to the chunk, and sums is a scratch array of 3 entries.
+     */
+    protected void sumChunk(int chunk, int begin, int end, RangeSummer summer, double[] sums) {
+      int slot = chunk * PARTIAL_SLOT_STRIDE;
+
+      if (!compensated) {
+        summer.sum(0, end - begin, sums);
+        partials[slot] = sums[0];
+        partials[slot + 1] = sums[1];
+        partials[slot + 2] = sums[2];
+        return;
+      }
+
+      double dotProduct = 0;
+      double aLengthSquare = 0;
+      double bLengthSquare = 0;
+      // Lost low-order parts of the three sums
+      double dotProductError = 0;
+      double aLengthSquareError = 0;
+      double bLengthSquareError = 0;
+
+      for (int blockBegin = 0; blockBegin < end - begin; blockBegin += COMPENSATED_BLOCK_SIZE) {
+        summer.sum(blockBegin, Math.min(blockBegin + COMPENSATED_BLOCK_SIZE, end - begin), sums);
+
+        double sum = dotProduct + sums[0];
+        dotProductError += getRoundingError(dotProduct, sums[0], sum);
+        dotProduct = sum;
+
+        sum = aLengthSquare + sums[1];
+        aLengthSquareError += getRoundingError(aLengthSquare, sums[1], sum);
+        aLengthSquare = sum;
+
+        sum = bLengthSquare + sums[2];
+        bLengthSquareError += getRoundingError(bLengthSquare, sums[2], sum);
+        bLengthSquare = sum;
+      }
+
+      partials[slot] = dotProduct + dotProductError;
+      partials[slot + 1] = aLengthSquare + aLengthSquareError;
+      partials[slot + 2] = bLengthSquare + bLengthSquareError;
+    }
+
+    /**
+     * Combine partial sums of all chunks: in chunk order in plain mode, or by a pairwise tree in
+     * compensated mode, whose rounding error grows with log(chunks) instead of chunks. Either
+     * way the order is fixed, so the result doesn't depend on the threads. Call it after all
+     * working threads finished.
+     */
+    public double getAngle() {
+      double dotProduct;
+      double aLengthSquare;
+      double bLengthSquare;
+
+      if (compensated) {
+        dotProduct = sumPairwise(0, chunkAmount, 0);
+        aLengthSquare = sumPairwise(0, chunkAmount, 1);
+        bLengthSquare = sumPairwise(0, chunkAmount, 2);
+      } else {
+        dotProduct = 0;
+        aLengthSquare = 0;
+        bLengthSquare = 0;
+
+        for (int slot = 0; slot < partials.length; slot += PARTIAL_SLOT_STRIDE) {
+          dotProduct += partials[slot];
+          aLengthSquare += partials[slot + 1];
+          bLengthSquare += partials[slot + 2];
+        }
+      }
+      return Math.toDegrees(Math.acos(dotProduct / Math.sqrt(aLengthSquare)
+          / Math.sqrt(bLengthSquare)));
     }
 
-    threadPool.shutdown();
-    threadPool.awaitTermination(1, TimeUnit.HOURS);
+    /**
+     * Sum up entry idx of slots of chunks [begin, end) as a balanced tree.
+     */
+    private double sumPairwise(int begin, int end, int idx) {
+      if (end - begin == 0) {
+        return 0;
+      }
+      if (end - begin == 1) {
+        return partials[begin * PARTIAL_SLOT_STRIDE + idx];
+      }
+
+      int mid = (begin + end) >>> 1;
+      return sumPairwise(begin, mid, idx) + sumPairwise(mid, end, idx);
+    }
+  }
+
+  /**
+   * Reduction thread reading from two double[].
+   */
+  static class ChunkedReductionThread extends ReductionThread {
+    private double[] vecA;
+    private double[] vecB;
+    private AtomicInteger nextChunk = new AtomicInteger();
+
+    public ChunkedReductionThread(String name, double[] vecA, double[] vecB, int chunkSize) {
+      this(name, vecA, vecB, chunkSize, false);
+    }
+
+    public ChunkedReductionThread(String name, double[] vecA, double[] vecB, int chunkSize,
+                                  boolean compensated) {
+      super(name, vecA.length, chunkSize, compensated);
+      this.vecA = vecA;
+      this.vecB = vecB;
+    }
+
+    @Override
+    public void run() {
+      double[] sums = new double[3];
+      int chunk;
+
+      while ((chunk = nextChunk.getAndIncrement()) < chunkAmount) {
+        int begin = chunk * chunkSize;
+        int end = Math.min(begin + chunkSize, length);
+
+        sumChunk(chunk, begin, end, (rangeBegin, rangeEnd, rangeSums) -> {
+          double dotProduct = 0;
+          double aLengthSquare = 0;
+          double bLengthSquare = 0;
+
+          for (int i = begin + rangeBegin; i < begin + rangeEnd; i++) {
+            dotProduct += vecA[i] * vecB[i];
+            aLengthSquare += vecA[i] * vecA[i];
+            bLengthSquare += vecB[i] * vecB[i];
+          }
+
+          rangeSums[0] = dotProduct;
+          rangeSums[1] = aLengthSquare;
+          rangeSums[2] = bLengthSquare;
+        }, sums);
+      }
+    }
+  }
+
+  /**
+   * Reduction thread reading from two files of raw little-endian doubles. The files are split
+   * into regions of whole chunks, at least one region per working thread. A thread claims a
+   * region, maps it from both files, and reads the entries straight from the mapped buffers, so
+   * the vectors are never copied into the heap. The chunks and their slots are the same as
+   * ChunkedReductionThread's, so is the result.
+   */
+  static class MappedReductionThread extends ReductionThread {
+    private FileChannel channelA;
+    private FileChannel channelB;
+    private int chunksPerRegion;
+    private int regionAmount;
+    private AtomicInteger nextRegion = new AtomicInteger();
+    private volatile IOException exception;
+
+    public MappedReductionThread(String name, FileChannel channelA, FileChannel channelB,
+                                 int length, int chunkSize, boolean compensated,
+                                 int threadAmount) {
+      super(name, length, chunkSize, compensated);
+      this.channelA = channelA;
+      this.channelB = channelB;
+
+      long maxChunksPerRegion = Math.max(MAX_MAPPED_REGION_BYTES / Double.BYTES / chunkSize, 1);
+      int chunksPerThread = (chunkAmount + threadAmount - 1) / threadAmount;
+      this.chunksPerRegion = (int) Math.max(Math.min(chunksPerThread, maxChunksPerRegion), 1);
+      this.regionAmount = (chunkAmount + chunksPerRegion - 1) / chunksPerRegion;
+    }
+
+    @Override
+    public void run() {
+      double[] sums = new double[3];
+      int region;
+
+      try {
+        while ((region = nextRegion.getAndIncrement()) < regionAmount && exception == null) {
+          int firstChunk = region * chunksPerRegion;
+          int lastChunk = Math.min(firstChunk + chunksPerRegion, chunkAmount);
+          int regionBegin = firstChunk * chunkSize;
+          int regionLength = Math.min(lastChunk * chunkSize, length) - regionBegin;
+          DoubleBuffer bufferA = map(channelA, regionBegin, regionLength);
+          DoubleBuffer bufferB = map(channelB, regionBegin, regionLength);
+
+          for (int chunk = firstChunk; chunk < lastChunk; chunk++) {
+            int begin = chunk * chunkSize;
+            int offset = begin - regionBegin;
+
+            sumChunk(chunk, begin, Math.min(begin + chunkSize, length),
+                (rangeBegin, rangeEnd, rangeSums) -> {
+                  double dotProduct = 0;
+                  double aLengthSquare = 0;
+                  double bLengthSquare = 0;
+
+                  for (int i = offset + rangeBegin; i < offset + rangeEnd; i++) {
+                    double a = bufferA.get(i);
+                    double b = bufferB.get(i);
+                    dotProduct += a * b;
+                    aLengthSquare += a * a;
+                    bLengthSquare += b * b;
+                  }
+
+                  rangeSums[0] = dotProduct;
+                  rangeSums[1] = aLengthSquare;
+                  rangeSums[2] = bLengthSquare;
+                }, sums);
+          }
+        }
+      } catch (IOException e) {
+        exception = e;
+      }
+    }
+
+    private static DoubleBuffer map(FileChannel channel, long begin, int length)
+        throws IOException {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+          begin * Double.BYTES, (long) length * Double.BYTES);
+      return buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    /**
+     * Return the first IOException of working threads, or null.
+     */
+    public IOException getException() {
+      return exception;
+    }
+  }
+
+  /**
+   * Return the amount of doubles in a file of raw little-endian doubles.
+   */
+  public static int getVectorFileLength(FileChannel channel) throws IOException {
+    long size = channel.size();
+
+    if (size % Double.BYTES != 0) {
+      throw new IOException("File size is not a multiple of " + Double.BYTES + " bytes");
+    }
+    if (size / Double.BYTES > Integer.MAX_VALUE) {
+      throw new IOException("Vector file is too long: " + size + " bytes");
+    }
+    return (int) (size / Double.BYTES);
+  }
+
+  /**
+   * Write the vector as raw little-endian doubles, the format read by
+   * getAngleBetweenTwoVectorsMapped().
+   */
+  public static void writeVectorFile(Path path, double[] vector) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      long maxRegionLength = MAX_MAPPED_REGION_BYTES / Double.BYTES;
+
+      // begin is a long, so adding a region length near the end of the vector can't overflow
+      for (long begin = 0; begin < vector.length; begin += maxRegionLength) {
+        int regionLength = (int) Math.min(maxRegionLength, vector.length - begin);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+            begin * Double.BYTES, (long) regionLength * Double.BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer()
+            .put(vector, (int) begin, regionLength);
+      }
+    }
+  }
+
+  /**
+   * Calculate the angle of two vectors stored as raw little-endian doubles in files, e.g. written
+   * by another process. The result is the same as getAngleBetweenTwoVectorsChunked() with the
+   * same vectors and settings.
+   */
+  public double getAngleBetweenTwoVectorsMapped(Path pathA, Path pathB)
+      throws IOException, InterruptedException {
+    try (FileChannel channelA = FileChannel.open(pathA, StandardOpenOption.READ);
+         FileChannel channelB = FileChannel.open(pathB, StandardOpenOption.READ)) {
+      int length = getVectorFileLength(channelA);
+
+      if (length != getVectorFileLength(channelB)) {
+        throw new ArithmeticException("Two vectors have different length.");
+      }
+
+      MappedReductionThread calculationThread = new MappedReductionThread(
+          "Mapped Calculation Thread", channelA, channelB, length, chunkSize,
+          compensatedSummation, threadAmount);
+
+      runOnThreadPool(calculationThread);
+      if (calculationThread.getException() != null) {
+        throw calculationThread.getException();
+      }
+      return calculationThread.getAngle();
+    }
+  }
+
+  /**
+   * Return the rounding error of sum = a + b, so that a + b == sum + error exactly (Neumaier).
+   */
+  private static double getRoundingError(double a, double b, double sum) {
+    return Math.abs(a) >= Math.abs(b) ? (a - sum) + b : (b - sum) + a;
+  }
+
+  /**
+   * Calculate the angle in the calling thread with compensated summation and the given chunk
+   * size. It's bit for bit the same as getAngleBetweenTwoVectorsChunked() with compensated
+   * summation and the same chunk size, on any amount of threads.
+   */
+  public static double getAngleBetweenTwoVectorsCompensated(double[] vecA, double[] vecB,
+                                                            int chunkSize) {
+    if (vecA.length != vecB.length) {
+      throw new ArithmeticException("Two vectors have different length.");
+    }
+
+    ChunkedReductionThread calculationThread =
+        new ChunkedReductionThread("Compensated Calculation Thread", vecA, vecB, chunkSize, true);
+    calculationThread.run();
+    return calculationThread.getAngle();
+  }
+
+  /**
+   * Calculate the angle using multi-threading without locking. The result is the same for the
+   * same chunk size, whatever the amount of threads.
+   */
+  public double getAngleBetweenTwoVectorsChunked(double[] vecA, double[] vecB)
+      throws InterruptedException {
+    if (vecA.length != vecB.length) {
+      throw new ArithmeticException("Two vectors have different length.");
+    }
+
+    ChunkedReductionThread calculationThread =
+        new ChunkedReductionThread("Chunked Calculation Thread", vecA, vecB, chunkSize,
+            compensatedSummation);
+
+    runOnThreadPool(calculationThread);
     return calculationThread.getAngle();
   }
 
-  public static void main(String[] args) throws InterruptedException {
+  /**
+   * Run the given task threadAmount times on a thread pool, and wait until all finished.
+   */
+  private void runOnThreadPool(Runnable task) throws InterruptedException {
+    ExecutorService pool = getThreadPool();
+    List<Future<?>> futures = new ArrayList<>();
+
+    for (int i = 0; i < threadAmount; i++) {
+      futures.add(pool.submit(task));
+    }
+
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private synchronized ExecutorService getThreadPool() {
+    if (threadPool == null) {
+      AtomicInteger threadCount = new AtomicInteger();
+
+      threadPool = new ThreadPoolExecutor(
+          cpuCoreAmount,
+          cpuCoreAmount,
+          0,
+          TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<>(),
+          runnable -> {
+            Thread thread = new Thread(runnable,
+                "Vector Angle Thread " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+    }
+    return threadPool;
+  }
+
+  /**
+   * Shut down the thread pool if this object owns it. A later call creates a new one.
+   */
+  @Override
+  public synchronized void close() {
+    if (ownsThreadPool && threadPool != null) {
+      threadPool.shutdown();
+      threadPool = null;
+    }
+  }
+
+  public int getThreadAmount() {
+    return threadAmount;
+  }
+
+  public void setThreadAmount(int threadAmount) {
+    validateThreadAmount(threadAmount);
+    this.threadAmount = threadAmount;
+  }
+
+  private static void validateThreadAmount(int threadAmount) {
+    if (threadAmount < 1) {
+      throw new IllegalArgumentException("Thread amount must be positive");
+    }
+  }
+
+  public int getCpuCoreAmount() {
+    return cpuCoreAmount;
+  }
+
+  /**
+   * Set the amount of threads of the pool this object owns. It has no effect on a given pool.
+   */
+  public synchronized void setCpuCoreAmount(int cpuCoreAmount) {
+    if (cpuCoreAmount < 1) {
+      throw new IllegalArgumentException("CPU core amount must be positive");
+    }
+    this.cpuCoreAmount = cpuCoreAmount;
+
+    if (ownsThreadPool && threadPool != null) {
+      ThreadPoolExecutor pool = (ThreadPoolExecutor) threadPool;
+
+      // Core size must not exceed max size at any time
+      if (cpuCoreAmount > pool.getMaximumPoolSize()) {
+        pool.setMaximumPoolSize(cpuCoreAmount);
+        pool.setCorePoolSize(cpuCoreAmount);
+      } else {
+        pool.setCorePoolSize(cpuCoreAmount);
+        pool.setMaximumPoolSize(cpuCoreAmount);
+      }
+    }
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public void setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  public boolean isCompensatedSummation() {
+    return compensatedSummation;
+  }
+
+  /**
+   * Use compensated pairwise summation in getAngleBetweenTwoVectorsChunked(). It's slower than
+   * naive summation by a few percent, and the result is reproducible for the same chunk size.
+   */
+  public void setCompensatedSummation(boolean compensatedSummation) {
+    this.compensatedSummation = compensatedSummation;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
     int vecLength = 150000000;
     double vecEntryMin = -189.99495173784872e-50;
     double vecEntryMax = 189.99495173784872e-50;
@@ -182,8 +692,42 @@ public class AngleBetweenTwoVectors {
     totalTime = (System.currentTimeMillis() - startTime);
     System.out.println("Multi thread runtime: " + totalTime + "sec.");
 
+    startTime = System.currentTimeMillis();
+    double resultC = angleBetweenTwoVectors.getAngleBetweenTwoVectorsChunked(vecA, vecB);
+    totalTime = (System.currentTimeMillis() - startTime);
+    System.out.println("Multi thread chunked runtime: " + totalTime + "sec.");
+
+    angleBetweenTwoVectors.setCompensatedSummation(true);
+    startTime = System.currentTimeMillis();
+    double resultD = angleBetweenTwoVectors.getAngleBetweenTwoVectorsChunked(vecA, vecB);
+    totalTime = (System.currentTimeMillis() - startTime);
+    System.out.println("Multi thread compensated runtime: " + totalTime + "sec.");
+    double resultE = getAngleBetweenTwoVectorsCompensated(vecA, vecB,
+        angleBetweenTwoVectors.getChunkSize());
+
+    Path pathA = Files.createTempFile("vectorA", ".bin");
+    Path pathB = Files.createTempFile("vectorB", ".bin");
+    double resultF;
+    try {
+      writeVectorFile(pathA, vecA);
+      writeVectorFile(pathB, vecB);
+      startTime = System.currentTimeMillis();
+      resultF = angleBetweenTwoVectors.getAngleBetweenTwoVectorsMapped(pathA, pathB);
+      totalTime = (System.currentTimeMillis() - startTime);
+      System.out.println("Multi thread mapped file runtime: " + totalTime + "sec.");
+    } finally {
+      Files.deleteIfExists(pathA);
+      Files.deleteIfExists(pathB);
+    }
+
     System.out.println("Result A: " + resultA);
     System.out.println("Result B: " + resultB);
+    System.out.println("Result C: " + resultC);
+    System.out.println("Result D: " + resultD);
     System.out.println("Is the result correct: " + (Math.abs(resultA - resultB) < 0.001));
+    System.out.println("Is the result correct: " + (Math.abs(resultA - resultC) < 0.001));
+    System.out.println("Is the compensated result reproducible: " + (resultD == resultE));
+    System.out.println("Is the mapped file result the same: " + (resultD == resultF));
+    angleBetweenTwoVectors.close();
   }
 }
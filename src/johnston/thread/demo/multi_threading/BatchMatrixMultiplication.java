@@ -0,0 +1,277 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Demo of multiplying a large batch of small matrices. Splitting one 32 x 32 multiplication
+ * among threads costs more than the multiplication itself, so instead each working thread takes
+ * whole multiplications of the batch.
+ *
+ * The thread pool lives as long as this object, so there is no thread creation per batch. Result
+ * matrices can be passed in to be reused by the next batch. Close this object to shut down the
+ * pool it owns.
+ */
+public class BatchMatrixMultiplication implements AutoCloseable {
+  // Multiplications claimed by a working thread at a time
+  private static final int DEFAULT_CLAIM_SIZE = 8;
+
+  private final ExecutorService threadPool;
+  private final int threadAmount;
+  private final boolean ownsThreadPool;
+  private volatile long lastBatchSize;
+  private volatile long lastBatchNanos;
+
+  /**
+   * Create a thread pool with one thread per CPU core.
+   */
+  public BatchMatrixMultiplication() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create a thread pool with the given amount of threads.
+   */
+  public BatchMatrixMultiplication(int threadAmount) {
+    validateThreadAmount(threadAmount);
+    AtomicInteger threadCount = new AtomicInteger();
+
+    this.threadAmount = threadAmount;
+    this.ownsThreadPool = true;
+    this.threadPool = new ThreadPoolExecutor(
+        threadAmount,
+        threadAmount,
+        0,
+        TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(),
+        runnable -> {
+          Thread thread = new Thread(runnable,
+              "Batch Matrix Multiplication Thread " + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  /**
+   * Use the given thread pool with the given amount of working threads. The pool is not shut
+   * down by close().
+   */
+  public BatchMatrixMultiplication(ExecutorService threadPool, int threadAmount) {
+    if (threadPool == null) {
+      throw new IllegalArgumentException("Thread pool must not be null");
+    }
+    validateThreadAmount(threadAmount);
+
+    this.threadPool = threadPool;
+    this.threadAmount = threadAmount;
+    this.ownsThreadPool = false;
+  }
+
+  /**
+   * Calculate matricesA[i] * matricesB[i] for each i.
+   */
+  public List<int[][]> multiply(List<int[][]> matricesA, List<int[][]> matricesB)
+      throws InterruptedException {
+    List<int[][]> results = new ArrayList<>(matricesA.size());
+
+    for (int i = 0; i < matricesA.size(); i++) {
+      results.add(null);
+    }
+    multiply(matricesA, matricesB, results);
+    return results;
+  }
+
+  /**
+   * Calculate matricesA[i] * matricesB[i] into results[i] for each i. A result matrix with the
+   * right size is overwritten, otherwise it's replaced by a new one.
+   */
+  public void multiply(List<int[][]> matricesA, List<int[][]> matricesB, List<int[][]> results)
+      throws InterruptedException {
+    if (matricesA.size() != matricesB.size() || matricesA.size() != results.size()) {
+      throw new IllegalArgumentException("Batch sizes do not match");
+    }
+
+    int[][][] arrayA = matricesA.toArray(new int[0][][]);
+    int[][][] arrayB = matricesB.toArray(new int[0][][]);
+    int[][][] arrayResults = results.toArray(new int[0][][]);
+
+    runBatch(arrayA.length, idx -> {
+      int[][] matrixA = arrayA[idx];
+      int[][] matrixB = arrayB[idx];
+
+      if (matrixA[0].length != matrixB.length) {
+        throw new ArithmeticException("Column of matrixA does not match row of matrixB");
+      }
+
+      int[][] result = arrayResults[idx];
+      if (result == null || result.length != matrixA.length
+          || result[0].length != matrixB[0].length) {
+        result = new int[matrixA.length][matrixB[0].length];
+        arrayResults[idx] = result;
+      } else {
+        for (int[] row : result) {
+          Arrays.fill(row, 0);
+        }
+      }
+      MatrixMultiplication.multiplyRows(matrixA, matrixB, result, 0, result.length,
+          matrixB.length);
+    });
+
+    for (int i = 0; i < arrayResults.length; i++) {
+      results.set(i, arrayResults[i]);
+    }
+  }
+
+  /**
+   * Calculate a batch of aRow x aColBRow by aColBRow x bCol multiplications stored in flat
+   * arrays. Matrix m of the batch begins at m * (matrix size) of each array, and is stored
+   * row by row.
+   */
+  public void multiplyStrided(int[] batchA, int[] batchB, int[] batchResults, int batchSize,
+                              int aRow, int aColBRow, int bCol) throws InterruptedException {
+    long aSize = (long) aRow * aColBRow;
+    long bSize = (long) aColBRow * bCol;
+    long resultSize = (long) aRow * bCol;
+
+    if (!fitsBatch(batchA.length, batchSize, aSize) || !fitsBatch(batchB.length, batchSize, bSize)
+        || !fitsBatch(batchResults.length, batchSize, resultSize)) {
+      throw new IllegalArgumentException("Batch arrays are too short");
+    }
+
+    // The whole batch fits in each array, so every offset fits in int
+    runBatch(batchSize, idx -> {
+      int aOffset = (int) (idx * aSize);
+      int bOffset = (int) (idx * bSize);
+      int resultOffset = (int) (idx * resultSize);
+      Arrays.fill(batchResults, resultOffset, (int) (resultOffset + resultSize), 0);
+
+      for (int i = 0; i < aRow; i++) {
+        int resultRow = resultOffset + i * bCol;
+
+        for (int k = 0; k < aColBRow; k++) {
+          int aEntry = batchA[aOffset + i * aColBRow + k];
+          int bRow = bOffset + k * bCol;
+
+          for (int j = 0; j < bCol; j++) {
+            batchResults[resultRow + j] += aEntry * batchB[bRow + j];
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Return true if batchSize matrices of matrixSize entries fit in the array. Compared by
+   * division, since batchSize * matrixSize may overflow even a long.
+   */
+  private static boolean fitsBatch(int arrayLength, int batchSize, long matrixSize) {
+    return matrixSize == 0 || batchSize <= arrayLength / matrixSize;
+  }
+
+  private static void validateThreadAmount(int threadAmount) {
+    if (threadAmount < 1) {
+      throw new IllegalArgumentException("Thread amount must be positive");
+    }
+  }
+
+  /**
+   * Multiplication of one matrix pair in the batch.
+   */
+  interface BatchTask {
+    void multiply(int idx);
+  }
+
+  /**
+   * Let threadAmount working threads claim multiplications until the batch is done, then record
+   * the throughput.
+   */
+  private void runBatch(int batchSize, BatchTask task) throws InterruptedException {
+    long startTime = System.nanoTime();
+    AtomicInteger claimed = new AtomicInteger();
+    Callable<Void> worker = () -> {
+      int begin;
+
+      while ((begin = claimed.getAndAdd(DEFAULT_CLAIM_SIZE)) < batchSize) {
+        int end = Math.min(begin + DEFAULT_CLAIM_SIZE, batchSize);
+
+        for (int i = begin; i < end; i++) {
+          task.multiply(i);
+        }
+      }
+      return null;
+    };
+
+    List<Future<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < threadAmount; i++) {
+      futures.add(threadPool.submit(worker));
+    }
+
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+
+    lastBatchSize = batchSize;
+    lastBatchNanos = System.nanoTime() - startTime;
+  }
+
+  /**
+   * Return how many multiplications per second the last batch ran.
+   */
+  public double getLastBatchThroughput() {
+    return lastBatchNanos == 0 ? 0 : lastBatchSize * 1e9 / lastBatchNanos;
+  }
+
+  public long getLastBatchNanos() {
+    return lastBatchNanos;
+  }
+
+  @Override
+  public void close() {
+    if (ownsThreadPool) {
+      threadPool.shutdown();
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int batchSize = 20000;
+    int size = 32;
+    List<int[][]> matricesA = new ArrayList<>();
+    List<int[][]> matricesB = new ArrayList<>();
+
+    for (int i = 0; i < batchSize; i++) {
+      matricesA.add(MatrixMultiplication.generateMatrix(size, size, -5, 5));
+      matricesB.add(MatrixMultiplication.generateMatrix(size, size, -5, 5));
+    }
+
+    try (BatchMatrixMultiplication batchMul = new BatchMatrixMultiplication()) {
+      List<int[][]> results = batchMul.multiply(matricesA, matricesB);
+      System.out.println("First batch: " + (long) batchMul.getLastBatchThroughput()
+          + " multiplications/sec.");
+
+      // Reuse result matrices
+      batchMul.multiply(matricesA, matricesB, results);
+      System.out.println("Second batch: " + (long) batchMul.getLastBatchThroughput()
+          + " multiplications/sec.");
+
+      boolean isCorrect = true;
+      for (int i = 0; i < batchSize; i++) {
+        isCorrect &= MatrixMultiplication.compareMatrix(results.get(i),
+            MatrixMultiplication.multiplyMatrix(matricesA.get(i), matricesB.get(i)));
+      }
+      System.out.println("Is the result correct: " + isCorrect);
+    }
+  }
+}
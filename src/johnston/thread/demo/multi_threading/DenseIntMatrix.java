@@ -0,0 +1,131 @@
+package johnston.thread.demo.multi_threading;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A dense int matrix stored row by row in one flat block, instead of int[][] which has one array
+ * object per row. Entry (i, j) is at index i * cols + j.
+ *
+ * The block is either an int[] on heap, or a direct buffer outside the heap. A direct matrix
+ * is not scanned or moved by the GC, which helps when many large matrices stay alive.
+ *
+ * Reading and writing a whole row at a time is much faster than entry by entry, especially for
+ * direct matrices, so the matrix kernels work on rows.
+ */
+public class DenseIntMatrix {
+  private final int rows;
+  private final int cols;
+  private final int[] data; // Null if direct
+  private final IntBuffer buffer; // Null if on heap
+
+  public DenseIntMatrix(int rows, int cols) {
+    this(rows, cols, false);
+  }
+
+  private DenseIntMatrix(int rows, int cols, boolean direct) {
+    if (rows < 1 || cols < 1) {
+      throw new IllegalArgumentException("Matrix size must be positive");
+    }
+    if ((long) rows * cols > (direct ? Integer.MAX_VALUE / Integer.BYTES : Integer.MAX_VALUE)) {
+      throw new IllegalArgumentException("Matrix is too large: " + rows + " x " + cols);
+    }
+
+    this.rows = rows;
+    this.cols = cols;
+
+    if (direct) {
+      this.data = null;
+      this.buffer = ByteBuffer.allocateDirect(rows * cols * Integer.BYTES)
+          .order(ByteOrder.nativeOrder()).asIntBuffer();
+    } else {
+      this.data = new int[rows * cols];
+      this.buffer = null;
+    }
+  }
+
+  /**
+   * Create a matrix stored in a direct buffer outside the heap.
+   */
+  public static DenseIntMatrix allocateDirect(int rows, int cols) {
+    return new DenseIntMatrix(rows, cols, true);
+  }
+
+  /**
+   * Copy an int[][] matrix into a new heap matrix.
+   */
+  public static DenseIntMatrix fromArray(int[][] matrix) {
+    DenseIntMatrix result = new DenseIntMatrix(matrix.length, matrix[0].length);
+
+    for (int i = 0; i < matrix.length; i++) {
+      result.setRow(i, matrix[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Copy this matrix into a new int[][] matrix.
+   */
+  public int[][] toArray() {
+    int[][] result = new int[rows][cols];
+
+    for (int i = 0; i < rows; i++) {
+      getRow(i, result[i]);
+    }
+    return result;
+  }
+
+  public int get(int row, int col) {
+    int idx = row * cols + col;
+    return data != null ? data[idx] : buffer.get(idx);
+  }
+
+  public void set(int row, int col, int val) {
+    int idx = row * cols + col;
+
+    if (data != null) {
+      data[idx] = val;
+    } else {
+      buffer.put(idx, val);
+    }
+  }
+
+  /**
+   * Copy the given row into dst[0, cols).
+   */
+  public void getRow(int row, int[] dst) {
+    if (data != null) {
+      System.arraycopy(data, row * cols, dst, 0, cols);
+    } else {
+      IntBuffer rowBuffer = buffer.duplicate();
+      rowBuffer.position(row * cols);
+      rowBuffer.get(dst, 0, cols);
+    }
+  }
+
+  /**
+   * Overwrite the given row with src[0, cols).
+   */
+  public void setRow(int row, int[] src) {
+    if (data != null) {
+      System.arraycopy(src, 0, data, row * cols, cols);
+    } else {
+      IntBuffer rowBuffer = buffer.duplicate();
+      rowBuffer.position(row * cols);
+      rowBuffer.put(src, 0, cols);
+    }
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  public int getCols() {
+    return cols;
+  }
+
+  public boolean isDirect() {
+    return buffer != null;
+  }
+}
@@ -0,0 +1,119 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Use fork-join pattern to calculate matrix multiplication C = A * B.
+ *
+ * Each task owns a sub-block of C and a range of the shared dimension k. It splits its longest
+ * dimension in half until all dimensions are within the leaf size:
+ *  - Splitting rows or columns gives two tasks writing disjoint parts of C, so they are forked;
+ *  - Splitting k gives two tasks writing the same part of C, so they run one after another.
+ *
+ * Idle worker threads steal the forked halves, so uneven matrices or a busy CPU core won't keep
+ * the others waiting. All calls share one fork-join pool, so there is no pool creation per call.
+ */
+public class ForkJoinMatrixMultiplication extends RecursiveTask<Void> {
+  public static final int DEFAULT_LEAF_SIZE = 128;
+  private static final int DEFAULT_BLOCK_SIZE = 64;
+
+  private int[][] matrixA;
+  private int[][] matrixBT;
+  private int[][] result;
+  private int rowBegin;
+  private int rowEnd;
+  private int colBegin;
+  private int colEnd;
+  private int kBegin;
+  private int kEnd;
+  private int leafSize;
+
+  private ForkJoinMatrixMultiplication(int[][] matrixA, int[][] matrixBT, int[][] result,
+                                       int rowBegin, int rowEnd, int colBegin, int colEnd,
+                                       int kBegin, int kEnd, int leafSize) {
+    this.matrixA = matrixA;
+    this.matrixBT = matrixBT;
+    this.result = result;
+    this.rowBegin = rowBegin;
+    this.rowEnd = rowEnd;
+    this.colBegin = colBegin;
+    this.colEnd = colEnd;
+    this.kBegin = kBegin;
+    this.kEnd = kEnd;
+    this.leafSize = leafSize;
+  }
+
+  @Override
+  protected Void compute() {
+    int rows = rowEnd - rowBegin;
+    int cols = colEnd - colBegin;
+    int ks = kEnd - kBegin;
+
+    if (rows <= leafSize && cols <= leafSize && ks <= leafSize) {
+      MatrixMultiplication.multiplyBlock(matrixA, matrixBT, result, rowBegin, rowEnd,
+          colBegin, colEnd, kBegin, kEnd, Math.min(leafSize, DEFAULT_BLOCK_SIZE));
+      return null;
+    }
+
+    if (ks >= rows && ks >= cols) {
+      // Both halves add to the same entries of C, so no forking here.
+      int mid = kBegin + ks / 2;
+      subTask(rowBegin, rowEnd, colBegin, colEnd, kBegin, mid).compute();
+      subTask(rowBegin, rowEnd, colBegin, colEnd, mid, kEnd).compute();
+      return null;
+    }
+
+    ForkJoinMatrixMultiplication fstTask;
+    ForkJoinMatrixMultiplication secTask;
+
+    if (rows >= cols) {
+      int mid = rowBegin + rows / 2;
+      fstTask = subTask(rowBegin, mid, colBegin, colEnd, kBegin, kEnd);
+      secTask = subTask(mid, rowEnd, colBegin, colEnd, kBegin, kEnd);
+    } else {
+      int mid = colBegin + cols / 2;
+      fstTask = subTask(rowBegin, rowEnd, colBegin, mid, kBegin, kEnd);
+      secTask = subTask(rowBegin, rowEnd, mid, colEnd, kBegin, kEnd);
+    }
+
+    secTask.fork();
+    fstTask.compute();
+    secTask.join();
+    return null;
+  }
+
+  private ForkJoinMatrixMultiplication subTask(int rowBegin, int rowEnd, int colBegin,
+                                               int colEnd, int kBegin, int kEnd) {
+    return new ForkJoinMatrixMultiplication(matrixA, matrixBT, result, rowBegin, rowEnd,
+        colBegin, colEnd, kBegin, kEnd, leafSize);
+  }
+
+  /**
+   * Calculate A * B on the common fork-join pool with the default leaf size.
+   */
+  public static int[][] multiply(int[][] matrixA, int[][] matrixB) {
+    return multiply(matrixA, matrixB, DEFAULT_LEAF_SIZE, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Calculate A * B on the given fork-join pool. A task stops splitting when its rows, columns
+   * and shared dimension are all no more than leafSize.
+   */
+  public static int[][] multiply(int[][] matrixA, int[][] matrixB, int leafSize,
+                                 ForkJoinPool forkJoinPool) {
+    if (matrixA[0].length != matrixB.length) {
+      throw new ArithmeticException("Column of matrixA does not match row of matrixB");
+    }
+    if (leafSize < 1) {
+      throw new IllegalArgumentException("Leaf size must be positive");
+    }
+
+    int[][] matrixBT = MatrixMultiplication.transposeMatrix(matrixB);
+    int[][] result = new int[matrixA.length][matrixB[0].length];
+
+    forkJoinPool.invoke(new ForkJoinMatrixMultiplication(matrixA, matrixBT, result,
+        0, result.length, 0, result[0].length, 0, matrixB.length, leafSize));
+    return result;
+  }
+}
@@ -0,0 +1,100 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.stream.IntStream;
+
+/**
+ * A double vector stored as IEEE 754 half precision (float16) in a short[]. Java 8 has no
+ * float16 type, so the conversion is written by hand.
+ *
+ * float16 has 1 sign bit, 5 exponent bits and 10 mantissa bits. Rounding to nearest gives a
+ * relative error of at most 2^-11, or an absolute error of at most 2^-25 for values below 2^-14.
+ * Values of magnitude 65520 or larger would round to infinity, so they are rejected. It takes 1/4
+ * of the memory of double[].
+ */
+public class HalfFloatVector {
+  static final double MAX_VALUE = 65504;
+  static final double RELATIVE_ERROR = 0x1p-11;
+  static final double SUBNORMAL_ERROR = 0x1p-25;
+
+  // All 65536 float16 values, so reading an entry is one table lookup
+  private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+  static {
+    for (int i = 0; i < HALF_TO_FLOAT.length; i++) {
+      HALF_TO_FLOAT[i] = (float) toDouble((short) i);
+    }
+  }
+
+  private final short[] values;
+
+  private HalfFloatVector(short[] values) {
+    this.values = values;
+  }
+
+  /**
+   * Convert the vector in parallel.
+   */
+  public static HalfFloatVector fromArray(double[] vector) {
+    short[] values = new short[vector.length];
+
+    IntStream.range(0, vector.length).parallel().forEach(i -> values[i] = toHalf(vector[i]));
+    return new HalfFloatVector(values);
+  }
+
+  /**
+   * Round the value to the nearest float16, ties to even.
+   */
+  public static short toHalf(double value) {
+    if (!(Math.abs(value) < MAX_VALUE + 16)) {
+      throw new ArithmeticException("Entry is out of float16 range");
+    }
+
+    int sign = value < 0 || (value == 0 && 1 / value < 0) ? 0x8000 : 0;
+    double abs = Math.abs(value);
+
+    if (abs < 0x1p-14) {
+      // Zero or subnormal: a multiple of 2^-24. 1024 * 2^-24 is the smallest normal.
+      return (short) (sign | (int) Math.rint(abs * 0x1p24));
+    }
+
+    // abs * 2^(10 - exp) is within [1024, 2048). A carry of rounding goes into the exponent.
+    int exp = Math.getExponent(abs);
+    int mantissa = (int) Math.rint(Math.scalb(abs, 10 - exp)) - 1024;
+    return (short) (sign | (((exp + 15) << 10) + mantissa));
+  }
+
+  public static double toDouble(short half) {
+    int bits = half & 0xFFFF;
+    int exp = (bits >>> 10) & 0x1F;
+    int mantissa = bits & 0x3FF;
+    double abs;
+
+    if (exp == 0) {
+      abs = mantissa * 0x1p-24;
+    } else if (exp == 31) {
+      abs = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+    } else {
+      abs = Math.scalb((double) (1024 + mantissa), exp - 25);
+    }
+    return (bits & 0x8000) != 0 ? -abs : abs;
+  }
+
+  /**
+   * Return the largest possible error of the stored value against the original one.
+   */
+  public static double getErrorBound(double stored) {
+    return Math.abs(stored) * RELATIVE_ERROR + SUBNORMAL_ERROR;
+  }
+
+  public double get(int idx) {
+    return HALF_TO_FLOAT[values[idx] & 0xFFFF];
+  }
+
+  public int getLength() {
+    return values.length;
+  }
+
+  short[] getValues() {
+    return values;
+  }
+}
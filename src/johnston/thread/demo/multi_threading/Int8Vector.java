@@ -0,0 +1,70 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.stream.IntStream;
+
+/**
+ * A double vector quantized to one byte per entry.
+ *
+ * Entries are split into blocks of 64, and each block has its own scale = max|x| / 127, so a
+ * block of small entries keeps its precision next to a block of large ones. Entry x is stored as
+ * q = round(x / scale) within [-127, 127], and read back as q * scale, so its error is at most
+ * scale / 2. It takes 1/8 of the memory of double[], plus one float per block.
+ */
+public class Int8Vector {
+  static final int BLOCK_SIZE = 64;
+
+  private final byte[] values;
+  private final float[] scales;
+
+  private Int8Vector(byte[] values, float[] scales) {
+    this.values = values;
+    this.scales = scales;
+  }
+
+  /**
+   * Quantize the vector in parallel.
+   */
+  public static Int8Vector fromArray(double[] vector) {
+    byte[] values = new byte[vector.length];
+    float[] scales = new float[(vector.length + BLOCK_SIZE - 1) / BLOCK_SIZE];
+
+    IntStream.range(0, scales.length).parallel().forEach(block -> {
+      int begin = block * BLOCK_SIZE;
+      int end = Math.min(begin + BLOCK_SIZE, vector.length);
+      double maxAbs = 0;
+
+      for (int i = begin; i < end; i++) {
+        if (Double.isNaN(vector[i]) || Double.isInfinite(vector[i])) {
+          throw new ArithmeticException("Entry is not a finite number");
+        }
+        maxAbs = Math.max(maxAbs, Math.abs(vector[i]));
+      }
+
+      // Round the scale up, so that max|x| / scale never exceeds 127
+      float scale = maxAbs == 0 ? 0 : Math.nextUp((float) (maxAbs / 127));
+      scales[block] = scale;
+
+      for (int i = begin; i < end && scale != 0; i++) {
+        long q = Math.round(vector[i] / scale);
+        values[i] = (byte) Math.max(-127, Math.min(127, q));
+      }
+    });
+    return new Int8Vector(values, scales);
+  }
+
+  public double get(int idx) {
+    return values[idx] * (double) scales[idx / BLOCK_SIZE];
+  }
+
+  public int getLength() {
+    return values.length;
+  }
+
+  byte[] getValues() {
+    return values;
+  }
+
+  float[] getScales() {
+    return scales;
+  }
+}
@@ -0,0 +1,171 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Calculate A1 * A2 * ... * An with the fewest multiply-adds, and run independent products at the
+ * same time.
+ *
+ * Matrix multiplication is associative, but the cost depends on the order. With dims[] where Ai
+ * is dims[i - 1] x dims[i], dynamic programming finds the best order:
+ * cost[i][j] = min(cost[i][k] + cost[k + 1][j] + dims[i - 1] * dims[k] * dims[j]), i <= k < j.
+ *
+ * The best order is a binary tree. Each product only waits for its two sub-products, so the tree
+ * is run as a DAG of CompletableFutures, and products in different subtrees run in parallel.
+ * Each product is also split among threads by ForkJoinMatrixMultiplication.
+ */
+public class MatrixChainMultiplication {
+  private final Executor executor;
+  // Pool where each product is split, which is the executor if it's a fork-join pool
+  private final ForkJoinPool productPool;
+
+  /**
+   * Run products on the common fork-join pool.
+   */
+  public MatrixChainMultiplication() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Schedule products on the given executor. If it's a ForkJoinPool, each product is split on it
+   * too, so all work stays within it. Otherwise the products are split on the common fork-join
+   * pool.
+   */
+  public MatrixChainMultiplication(Executor executor) {
+    this.executor = executor;
+    this.productPool = executor instanceof ForkJoinPool ? (ForkJoinPool) executor
+        : ForkJoinPool.commonPool();
+  }
+
+  /**
+   * Return the dims[] of the chain, and check that adjacent matrices can be multiplied.
+   */
+  public static int[] getDims(List<int[][]> chain) {
+    if (chain.isEmpty()) {
+      throw new IllegalArgumentException("Empty matrix chain");
+    }
+
+    int[] dims = new int[chain.size() + 1];
+    dims[0] = chain.get(0).length;
+
+    for (int i = 0; i < chain.size(); i++) {
+      int[][] matrix = chain.get(i);
+
+      if (matrix.length != dims[i]) {
+        throw new ArithmeticException("Column of matrix " + i + " does not match row of matrix "
+            + (i + 1));
+      }
+      dims[i + 1] = matrix[0].length;
+    }
+    return dims;
+  }
+
+  /**
+   * Find the best order of the chain whose Ai is dims[i - 1] x dims[i].
+   *
+   * @return split[][]: split[i][j] = k means (Ai...Ak) * (Ak+1...Aj) is best, 1-indexed.
+   */
+  public static int[][] planOrder(int[] dims) {
+    int n = dims.length - 1;
+    long[][] cost = new long[n + 1][n + 1];
+    int[][] split = new int[n + 1][n + 1];
+
+    for (int length = 2; length <= n; length++) {
+      for (int i = 1; i + length - 1 <= n; i++) {
+        int j = i + length - 1;
+        cost[i][j] = Long.MAX_VALUE;
+
+        for (int k = i; k < j; k++) {
+          long currCost = cost[i][k] + cost[k + 1][j] + (long) dims[i - 1] * dims[k] * dims[j];
+
+          if (currCost < cost[i][j]) {
+            cost[i][j] = currCost;
+            split[i][j] = k;
+          }
+        }
+      }
+    }
+    return split;
+  }
+
+  /**
+   * Return the best order in parentheses, e.g. ((A1A2)A3).
+   */
+  public static String getParenthesization(int[] dims) {
+    StringBuilder sb = new StringBuilder();
+    appendParenthesization(planOrder(dims), 1, dims.length - 1, sb);
+    return sb.toString();
+  }
+
+  private static void appendParenthesization(int[][] split, int i, int j, StringBuilder sb) {
+    if (i == j) {
+      sb.append('A').append(i);
+      return;
+    }
+
+    sb.append('(');
+    appendParenthesization(split, i, split[i][j], sb);
+    appendParenthesization(split, split[i][j] + 1, j, sb);
+    sb.append(')');
+  }
+
+  /**
+   * Calculate the product of the chain in the best order.
+   */
+  public int[][] multiply(List<int[][]> chain) throws InterruptedException {
+    int[] dims = getDims(chain);
+    int[][] split = planOrder(dims);
+
+    try {
+      return buildProduct(chain, split, 1, chain.size()).get();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Return the future of Ai * ... * Aj. It starts as soon as both sub-products are done.
+   */
+  private CompletableFuture<int[][]> buildProduct(List<int[][]> chain, int[][] split, int i,
+                                                  int j) {
+    if (i == j) {
+      return CompletableFuture.completedFuture(chain.get(i - 1));
+    }
+
+    CompletableFuture<int[][]> left = buildProduct(chain, split, i, split[i][j]);
+    CompletableFuture<int[][]> right = buildProduct(chain, split, split[i][j] + 1, j);
+    return left.thenCombineAsync(right, (matrixA, matrixB) -> ForkJoinMatrixMultiplication
+        .multiply(matrixA, matrixB, ForkJoinMatrixMultiplication.DEFAULT_LEAF_SIZE, productPool),
+        executor);
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int[] dims = {30, 350, 15, 50, 10, 200, 25, 400};
+    List<int[][]> chain = new ArrayList<>();
+
+    for (int i = 1; i < dims.length; i++) {
+      chain.add(MatrixMultiplication.generateMatrix(dims[i - 1], dims[i], -5, 5));
+    }
+    System.out.println("Best order: " + getParenthesization(dims));
+
+    long startTime = System.currentTimeMillis();
+    int[][] resultA = new MatrixChainMultiplication().multiply(chain);
+    System.out.println("Planned runtime: " + (System.currentTimeMillis() - startTime) + "ms.");
+
+    startTime = System.currentTimeMillis();
+    int[][] resultB = chain.get(0);
+    for (int i = 1; i < chain.size(); i++) {
+      resultB = MatrixMultiplication.multiplyMatrix(resultB, chain.get(i));
+    }
+    System.out.println("Left to right runtime: " + (System.currentTimeMillis() - startTime)
+        + "ms.");
+
+    System.out.println("Is the result correct: "
+        + MatrixMultiplication.compareMatrix(resultA, resultB));
+  }
+}
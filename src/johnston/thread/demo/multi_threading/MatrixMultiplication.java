@@ -1,9 +1,16 @@
 package johnston.thread.demo.multi_threading;
 
-import java.util.Random;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /**
  * Demo of using multi-threading to calculate matrix multiplication. Use thread pool to create
@@ -11,11 +18,19 @@ import java.util.concurrent.TimeUnit;
  *
  * A * B = C, A_cols == B_rows
  * C[i][j] = sum(A[i][0 - n] * B[0 - n][j])
+ *
+ * The thread pool lives as long as this object, or is given by the caller and can be shared with
+ * other engines, so small multiplications don't pay for creating threads. Close this object to
+ * shut down the pool it owns.
  */
-public class MatrixMultiplication {
+public class MatrixMultiplication implements AutoCloseable {
   private static final int DEFAULT_MATRIX_A_MIN_ROW = 1000;
   private static final int DEFAULT_MATRIX_B_MIN_COL = 1000;
   private static final int DEFAULT_MIN_A_COLUMN_B_ROW = 1000;
+  // 64 * 64 ints = 16KB per tile, so one tile of A and one of B^T fit in L1/L2 together
+  private static final int DEFAULT_BLOCK_SIZE = 64;
+  // Rows of a dense matrix calculated together, so each row of B is read once per 16 rows
+  private static final int DEFAULT_DENSE_BLOCK_ROWS = 16;
   private static final int DEFAULT_THREAD_AMOUNT;
   private static final int DEFAULT_CPU_CORE_AMOUNT;
 
@@ -24,9 +39,34 @@ public class MatrixMultiplication {
     DEFAULT_THREAD_AMOUNT = DEFAULT_CPU_CORE_AMOUNT;
   }
 
-  private static Random random;
   private int threadAmount = DEFAULT_THREAD_AMOUNT;
   private int cpuCoreAmount = DEFAULT_CPU_CORE_AMOUNT;
+  private int blockSize = DEFAULT_BLOCK_SIZE;
+  private int strassenCrossover = StrassenMatrixMultiplication.DEFAULT_CROSSOVER;
+  private final boolean ownsThreadPool;
+  private ExecutorService threadPool;
+
+  /**
+   * Create a thread pool of cpuCoreAmount threads on first use.
+   */
+  public MatrixMultiplication() {
+    this.ownsThreadPool = true;
+  }
+
+  /**
+   * Use the given thread pool with the given amount of working threads. The pool is not shut
+   * down by close().
+   */
+  public MatrixMultiplication(ExecutorService threadPool, int threadAmount) {
+    if (threadPool == null) {
+      throw new IllegalArgumentException("Thread pool must not be null");
+    }
+    validateThreadAmount(threadAmount);
+
+    this.ownsThreadPool = false;
+    this.threadPool = threadPool;
+    this.threadAmount = threadAmount;
+  }
 
   /**
    * Method to calculate matrix multiplication by iterating each entry in one thread.
@@ -49,6 +89,81 @@ public class MatrixMultiplication {
     return result;
   }
 
+  /**
+   * Method to calculate matrix multiplication of two dense matrices in one thread. The result is
+   * a direct matrix if matrixA is direct, otherwise a heap matrix.
+   */
+  public static DenseIntMatrix multiplyMatrix(DenseIntMatrix matrixA, DenseIntMatrix matrixB) {
+    validateMatrixMultiply(matrixA.getCols(), matrixB.getRows());
+
+    DenseIntMatrix result = newDenseResult(matrixA, matrixB);
+    DenseRowsScratch scratch = new DenseRowsScratch(DEFAULT_DENSE_BLOCK_ROWS, matrixA.getCols(),
+        matrixB.getCols());
+
+    for (int i = 0; i < result.getRows(); i += DEFAULT_DENSE_BLOCK_ROWS) {
+      multiplyDenseRows(matrixA, matrixB, result, i,
+          Math.min(i + DEFAULT_DENSE_BLOCK_ROWS, result.getRows()), scratch);
+    }
+    return result;
+  }
+
+  /**
+   * Heap rows used by multiplyDenseRows(). Each thread needs its own.
+   */
+  static class DenseRowsScratch {
+    private int[][] aRows;
+    private int[][] resultRows;
+    private int[] bRow;
+
+    DenseRowsScratch(int blockRows, int aColBRow, int bCol) {
+      aRows = new int[blockRows][aColBRow];
+      resultRows = new int[blockRows][bCol];
+      bRow = new int[bCol];
+    }
+  }
+
+  /**
+   * Calculate rows [rowBegin, rowEnd) of A * B for dense matrices. The rows of A and the result
+   * are held in scratch rows, so each row of B is copied out only once for the whole block, and
+   * the inner loop walks B and the result along a row.
+   */
+  static void multiplyDenseRows(DenseIntMatrix matrixA, DenseIntMatrix matrixB,
+                                DenseIntMatrix result, int rowBegin, int rowEnd,
+                                DenseRowsScratch scratch) {
+    int blockRows = rowEnd - rowBegin;
+    int aColBRow = matrixA.getCols();
+    int bCol = matrixB.getCols();
+    int[] bRow = scratch.bRow;
+
+    for (int i = 0; i < blockRows; i++) {
+      matrixA.getRow(rowBegin + i, scratch.aRows[i]);
+      Arrays.fill(scratch.resultRows[i], 0);
+    }
+
+    for (int k = 0; k < aColBRow; k++) {
+      matrixB.getRow(k, bRow);
+
+      for (int i = 0; i < blockRows; i++) {
+        int aEntry = scratch.aRows[i][k];
+        int[] resultRow = scratch.resultRows[i];
+
+        for (int j = 0; j < bCol; j++) {
+          resultRow[j] += aEntry * bRow[j];
+        }
+      }
+    }
+
+    for (int i = 0; i < blockRows; i++) {
+      result.setRow(rowBegin + i, scratch.resultRows[i]);
+    }
+  }
+
+  private static DenseIntMatrix newDenseResult(DenseIntMatrix matrixA, DenseIntMatrix matrixB) {
+    return matrixA.isDirect()
+        ? DenseIntMatrix.allocateDirect(matrixA.getRows(), matrixB.getCols())
+        : new DenseIntMatrix(matrixA.getRows(), matrixB.getCols());
+  }
+
   /**
    * Thread class for calculating matrix multiplication.
    */
@@ -126,26 +241,625 @@ public class MatrixMultiplication {
     // Ceiling computation
     int subTaskEntries = (totalEntries - 1) / threadAmount + 1;
 
-    ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
-        cpuCoreAmount,
-        cpuCoreAmount * 2,
-        10,
-        TimeUnit.MILLISECONDS,
-        new LinkedBlockingDeque<>(threadAmount),
-        new ThreadPoolExecutor.CallerRunsPolicy() // Thread who submit task run task itself.
-    );
-
     // Create new Thread object
     Thread calculationThread = new MatrixMultiplicationThread(matrixA, matrixB, result,
         subTaskEntries,"Matrix Multiplication Thread A");
 
+    runOnThreadPool(calculationThread);
+    return result;
+  }
+
+  /**
+   * Thread class for calculating matrix multiplication tile by tile. Matrix B is transposed
+   * before calculation, so both A[i][k] and B^T[j][k] are read along a row, and each tile of
+   * A and B^T is small enough to stay in the CPU cache while it's reused.
+   *
+   * Each worker keeps claiming a block of rows until no rows left.
+   */
+  static class BlockedMatrixMultiplicationThread extends Thread {
+    private int rowsAssigned;
+    private int[][] matrixA;
+    private int[][] matrixBT;
+    private int[][] result;
+    private int blockSize;
+
+    public BlockedMatrixMultiplicationThread(int[][] matrixA, int[][] matrixBT, int[][] result,
+                                             int blockSize, String name) {
+      super(name);
+      this.rowsAssigned = 0;
+      this.matrixA = matrixA;
+      this.matrixBT = matrixBT;
+      this.result = result;
+      this.blockSize = blockSize;
+    }
+
+    /**
+     * Assign a block of rows in the result matrix. This method is synchronized to make sure
+     * each assignment is atomic.
+     *
+     * @return range[]: range[0]: begin row, range[1]: end row exclusively.
+     * Return null if no more tasks.
+     */
+    private synchronized int[] getRowBlock() {
+      if (rowsAssigned == result.length) {
+        return null;
+      }
+      int begin = rowsAssigned;
+      rowsAssigned += Math.min(blockSize, result.length - rowsAssigned);
+
+      return new int[]{begin, rowsAssigned};
+    }
+
+    public void run() {
+      int[] rowBlock;
+
+      while ((rowBlock = getRowBlock()) != null) {
+        multiplyBlock(matrixA, matrixBT, result, rowBlock[0], rowBlock[1], 0, matrixBT.length,
+            0, matrixBT[0].length, blockSize);
+      }
+    }
+  } // End thread class
+
+  /**
+   * Thread class for calculating matrix multiplication with the SIMD friendly kernel
+   * multiplyRows(). Each worker keeps claiming a block of rows until no rows left.
+   */
+  static class VectorizedMatrixMultiplicationThread extends Thread {
+    private int rowsAssigned;
+    private int[][] matrixA;
+    private int[][] matrixB;
+    private int[][] result;
+    private int blockSize;
+
+    public VectorizedMatrixMultiplicationThread(int[][] matrixA, int[][] matrixB, int[][] result,
+                                                int blockSize, String name) {
+      super(name);
+      this.rowsAssigned = 0;
+      this.matrixA = matrixA;
+      this.matrixB = matrixB;
+      this.result = result;
+      this.blockSize = blockSize;
+    }
+
+    /**
+     * Assign a block of rows in the result matrix. Return null if no more tasks.
+     */
+    private synchronized int[] getRowBlock() {
+      if (rowsAssigned == result.length) {
+        return null;
+      }
+      int begin = rowsAssigned;
+      rowsAssigned += Math.min(blockSize, result.length - rowsAssigned);
+
+      return new int[]{begin, rowsAssigned};
+    }
+
+    public void run() {
+      int[] rowBlock;
+
+      while ((rowBlock = getRowBlock()) != null) {
+        multiplyRows(matrixA, matrixB, result, rowBlock[0], rowBlock[1], blockSize);
+      }
+    }
+  } // End thread class
+
+  /**
+   * Calculate rows [rowBegin, rowEnd) of A * B in i-k-j order:
+   * result[i][0 - n] += A[i][k] * B[k][0 - n].
+   *
+   * The inner loop has no dependency between iterations and reads B and the result along a row,
+   * so the JIT compiles it into SIMD instructions (e.g. 8 ints per AVX2 instruction) where the
+   * CPU supports it, and into plain scalar code otherwise. Int arithmetic wraps the same way in
+   * both, so the result is identical to multiplyMatrix(). The shared dimension is split into
+   * blocks, so the rows of B being used stay in the CPU cache across rows of A.
+   */
+  static void multiplyRows(int[][] matrixA, int[][] matrixB, int[][] result,
+                           int rowBegin, int rowEnd, int blockSize) {
+    int aColBRow = matrixB.length;
+    int bCol = matrixB[0].length;
+
+    for (int kk = 0; kk < aColBRow; kk += blockSize) {
+      int kMax = Math.min(kk + blockSize, aColBRow);
+
+      for (int i = rowBegin; i < rowEnd; i++) {
+        int[] aRow = matrixA[i];
+        int[] resultRow = result[i];
+
+        for (int k = kk; k < kMax; k++) {
+          int aEntry = aRow[k];
+          int[] bRow = matrixB[k];
+
+          for (int j = 0; j < bCol; j++) {
+            resultRow[j] += aEntry * bRow[j];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Method to calculate matrix multiplication in one thread with the SIMD friendly kernel. The
+   * result is the same as multiplyMatrix().
+   */
+  public static int[][] vectorizedMultiplyMatrix(int[][] matrixA, int[][] matrixB) {
+    validateMatrixMultiply(matrixA[0].length, matrixB.length);
+
+    int[][] result = new int[matrixA.length][matrixB[0].length];
+    multiplyRows(matrixA, matrixB, result, 0, result.length, DEFAULT_BLOCK_SIZE);
+    return result;
+  }
+
+  /**
+   * Method to calculate matrix multiplication using multi-threading and the SIMD friendly
+   * kernel. The result is the same as multiplyMatrix().
+   */
+  public int[][] multiThreadedVectorizedMultiplyMatrix(int[][] matrixA, int[][] matrixB)
+      throws InterruptedException {
+    validateMatrixMultiply(matrixA[0].length, matrixB.length);
+
+    int[][] result = new int[matrixA.length][matrixB[0].length];
+    Thread calculationThread = new VectorizedMatrixMultiplicationThread(matrixA, matrixB, result,
+        blockSize, "Vectorized Matrix Multiplication Thread");
+
+    runOnThreadPool(calculationThread);
+    return result;
+  }
+
+  /**
+   * Kernel which calculates rows [rowBegin, rowEnd) of the result.
+   */
+  interface RowBlockKernel {
+    void multiply(int rowBegin, int rowEnd);
+  }
+
+  /**
+   * Thread class which keeps claiming a block of rows and running the kernel on it until no rows
+   * left. If the kernel throws ArithmeticException, the other workers stop claiming rows, and the
+   * exception is kept for the caller.
+   */
+  static class RowBlockThread extends Thread {
+    private int rowsAssigned;
+    private int totalRows;
+    private int blockSize;
+    private RowBlockKernel kernel;
+    private volatile ArithmeticException failure;
+
+    public RowBlockThread(int totalRows, int blockSize, RowBlockKernel kernel, String name) {
+      super(name);
+      this.rowsAssigned = 0;
+      this.totalRows = totalRows;
+      this.blockSize = blockSize;
+      this.kernel = kernel;
+    }
+
+    /**
+     * Assign a block of rows in the result matrix. Return null if no more tasks.
+     */
+    private synchronized int[] getRowBlock() {
+      if (rowsAssigned == totalRows || failure != null) {
+        return null;
+      }
+      int begin = rowsAssigned;
+      rowsAssigned += Math.min(blockSize, totalRows - rowsAssigned);
+
+      return new int[]{begin, rowsAssigned};
+    }
+
+    public void run() {
+      int[] rowBlock;
+
+      try {
+        while ((rowBlock = getRowBlock()) != null) {
+          kernel.multiply(rowBlock[0], rowBlock[1]);
+        }
+      } catch (ArithmeticException e) {
+        failure = e;
+      }
+    }
+
+    public ArithmeticException getFailure() {
+      return failure;
+    }
+  } // End thread class
+
+  /**
+   * Same as multiplyRows(), but each entry is summed in long. The product of two ints always fits
+   * in long, so no entry overflows unless the sum is beyond +-2^63.
+   */
+  static void multiplyRowsToLong(int[][] matrixA, int[][] matrixB, long[][] result,
+                                 int rowBegin, int rowEnd, int blockSize) {
+    int aColBRow = matrixB.length;
+    int bCol = matrixB[0].length;
+
+    for (int kk = 0; kk < aColBRow; kk += blockSize) {
+      int kMax = Math.min(kk + blockSize, aColBRow);
+
+      for (int i = rowBegin; i < rowEnd; i++) {
+        int[] aRow = matrixA[i];
+        long[] resultRow = result[i];
+
+        for (int k = kk; k < kMax; k++) {
+          long aEntry = aRow[k];
+          int[] bRow = matrixB[k];
+
+          for (int j = 0; j < bCol; j++) {
+            resultRow[j] += aEntry * bRow[j];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Same as multiplyRowsToLong(), but detects long overflow. The sum r + p overflows only if r
+   * and p have the same sign and the sum has the other sign, i.e. ((r ^ sum) & (p ^ sum)) < 0,
+   * which is the check in Math.addExact(). The check is OR-ed into a flag without branching, and
+   * the flag is tested once per tile.
+   *
+   * @throws ArithmeticException If any entry overflows long.
+   */
+  static void multiplyRowsToLongChecked(int[][] matrixA, int[][] matrixB, long[][] result,
+                                        int rowBegin, int rowEnd, int blockSize) {
+    int aColBRow = matrixB.length;
+    int bCol = matrixB[0].length;
+
+    for (int kk = 0; kk < aColBRow; kk += blockSize) {
+      int kMax = Math.min(kk + blockSize, aColBRow);
+      long overflow = 0;
+
+      for (int i = rowBegin; i < rowEnd; i++) {
+        int[] aRow = matrixA[i];
+        long[] resultRow = result[i];
+
+        for (int k = kk; k < kMax; k++) {
+          long aEntry = aRow[k];
+          int[] bRow = matrixB[k];
+
+          for (int j = 0; j < bCol; j++) {
+            long product = aEntry * bRow[j];
+            long sum = resultRow[j] + product;
+            overflow |= (resultRow[j] ^ sum) & (product ^ sum);
+            resultRow[j] = sum;
+          }
+        }
+      }
+
+      if (overflow < 0) {
+        throw new ArithmeticException("Long overflow in rows " + rowBegin + " - " + rowEnd);
+      }
+    }
+  }
+
+  /**
+   * Same as multiplyRows(), but each entry is summed in double. It never overflows, but entries
+   * beyond 2^53 lose precision.
+   */
+  static void multiplyRowsToDouble(int[][] matrixA, int[][] matrixB, double[][] result,
+                                   int rowBegin, int rowEnd, int blockSize) {
+    int aColBRow = matrixB.length;
+    int bCol = matrixB[0].length;
+
+    for (int kk = 0; kk < aColBRow; kk += blockSize) {
+      int kMax = Math.min(kk + blockSize, aColBRow);
+
+      for (int i = rowBegin; i < rowEnd; i++) {
+        int[] aRow = matrixA[i];
+        double[] resultRow = result[i];
+
+        for (int k = kk; k < kMax; k++) {
+          double aEntry = aRow[k];
+          int[] bRow = matrixB[k];
+
+          for (int j = 0; j < bCol; j++) {
+            resultRow[j] += aEntry * bRow[j];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Method to calculate matrix multiplication in one thread, summing each entry in long.
+   */
+  public static long[][] multiplyMatrixToLong(int[][] matrixA, int[][] matrixB) {
+    validateMatrixMultiply(matrixA[0].length, matrixB.length);
+
+    long[][] result = new long[matrixA.length][matrixB[0].length];
+    multiplyRowsToLong(matrixA, matrixB, result, 0, result.length, DEFAULT_BLOCK_SIZE);
+    return result;
+  }
+
+  /**
+   * Method to calculate matrix multiplication using multi-threading, summing each entry in long.
+   *
+   * @param checked Whether to check long overflow
+   * @throws ArithmeticException If checked and any entry overflows long.
+   */
+  public long[][] multiThreadedMultiplyMatrixToLong(int[][] matrixA, int[][] matrixB,
+                                                    boolean checked)
+      throws InterruptedException {
+    validateMatrixMultiply(matrixA[0].length, matrixB.length);
+
+    long[][] result = new long[matrixA.length][matrixB[0].length];
+    // No need to check every sum if even the largest possible entry fits
+    checked = checked && !isLongSafe(matrixA, matrixB);
+    RowBlockKernel kernel = checked
+        ? (begin, end) -> multiplyRowsToLongChecked(matrixA, matrixB, result, begin, end,
+            blockSize)
+        : (begin, end) -> multiplyRowsToLong(matrixA, matrixB, result, begin, end, blockSize);
+
+    runRowBlockKernel(result.length, kernel, "Long Matrix Multiplication Thread");
+    return result;
+  }
+
+  /**
+   * Method to calculate matrix multiplication using multi-threading, summing each entry in
+   * double.
+   */
+  public double[][] multiThreadedMultiplyMatrixToDouble(int[][] matrixA, int[][] matrixB)
+      throws InterruptedException {
+    validateMatrixMultiply(matrixA[0].length, matrixB.length);
+
+    double[][] result = new double[matrixA.length][matrixB[0].length];
+    runRowBlockKernel(result.length,
+        (begin, end) -> multiplyRowsToDouble(matrixA, matrixB, result, begin, end, blockSize),
+        "Double Matrix Multiplication Thread");
+    return result;
+  }
+
+  /**
+   * Method to calculate matrix multiplication using multi-threading, and check that no entry
+   * overflows int. Entries are summed in long and checked once per entry at the end.
+   *
+   * @throws ArithmeticException If any entry overflows int.
+   */
+  public int[][] multiThreadedMultiplyMatrixExact(int[][] matrixA, int[][] matrixB)
+      throws InterruptedException {
+    long[][] longResult = multiThreadedMultiplyMatrixToLong(matrixA, matrixB, true);
+    int[][] result = new int[longResult.length][longResult[0].length];
+
+    for (int i = 0; i < result.length; i++) {
+      for (int j = 0; j < result[0].length; j++) {
+        result[i][j] = Math.toIntExact(longResult[i][j]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return true if no entry of A * B can overflow long, i.e. max|A| * max|B| * aCol < 2^63.
+   */
+  private static boolean isLongSafe(int[][] matrixA, int[][] matrixB) {
+    try {
+      long bound = Math.multiplyExact(getMaxAbs(matrixA), getMaxAbs(matrixB));
+      Math.multiplyExact(bound, (long) matrixB.length);
+      return true;
+    } catch (ArithmeticException e) {
+      return false;
+    }
+  }
+
+  private static long getMaxAbs(int[][] matrix) {
+    long maxAbs = 0;
+
+    for (int[] row : matrix) {
+      for (int entry : row) {
+        maxAbs = Math.max(maxAbs, Math.abs((long) entry));
+      }
+    }
+    return maxAbs;
+  }
+
+  private void runRowBlockKernel(int totalRows, RowBlockKernel kernel, String name)
+      throws InterruptedException {
+    RowBlockThread calculationThread = new RowBlockThread(totalRows, blockSize, kernel, name);
+    runOnThreadPool(calculationThread);
+
+    if (calculationThread.getFailure() != null) {
+      throw calculationThread.getFailure();
+    }
+  }
+
+  /**
+   * Calculate result[rowBegin, rowEnd)[colBegin, colEnd) += A[rows][kBegin, kEnd) *
+   * B[kBegin, kEnd)[cols] in tiles of blockSize, where B is given as its transpose.
+   */
+  static void multiplyBlock(int[][] matrixA, int[][] matrixBT, int[][] result,
+                            int rowBegin, int rowEnd, int colBegin, int colEnd,
+                            int kBegin, int kEnd, int blockSize) {
+    for (int kk = kBegin; kk < kEnd; kk += blockSize) {
+      int kMax = Math.min(kk + blockSize, kEnd);
+
+      for (int jj = colBegin; jj < colEnd; jj += blockSize) {
+        int jMax = Math.min(jj + blockSize, colEnd);
+
+        for (int i = rowBegin; i < rowEnd; i++) {
+          int[] aRow = matrixA[i];
+          int[] resultRow = result[i];
+
+          for (int j = jj; j < jMax; j++) {
+            int[] bTRow = matrixBT[j];
+            int sum = 0;
+
+            for (int k = kk; k < kMax; k++) {
+              sum += aRow[k] * bTRow[k];
+            }
+            resultRow[j] += sum;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Method to calculate matrix multiplication using multi-threading and cache blocking. Matrix
+   * B is transposed first, then working threads calculate the result by tiles. The result is
+   * the same as multiplyMatrix().
+   */
+  public int[][] multiThreadedBlockedMultiplyMatrix(int[][] matrixA, int[][] matrixB)
+      throws InterruptedException {
+    validateMatrixMultiply(matrixA[0].length, matrixB.length);
+
+    int[][] matrixBT = transposeMatrix(matrixB);
+    int[][] result = new int[matrixA.length][matrixB[0].length];
+
+    Thread calculationThread = new BlockedMatrixMultiplicationThread(matrixA, matrixBT, result,
+        blockSize, "Blocked Matrix Multiplication Thread");
+
+    runOnThreadPool(calculationThread);
+    return result;
+  }
+
+  /**
+   * Thread class for calculating matrix multiplication of dense matrices. Each worker keeps
+   * claiming a block of rows until no rows left.
+   */
+  static class DenseMatrixMultiplicationThread extends Thread {
+    private int rowsAssigned;
+    private DenseIntMatrix matrixA;
+    private DenseIntMatrix matrixB;
+    private DenseIntMatrix result;
+
+    public DenseMatrixMultiplicationThread(DenseIntMatrix matrixA, DenseIntMatrix matrixB,
+                                           DenseIntMatrix result, String name) {
+      super(name);
+      this.rowsAssigned = 0;
+      this.matrixA = matrixA;
+      this.matrixB = matrixB;
+      this.result = result;
+    }
+
+    /**
+     * Assign a block of rows in the result matrix. Return null if no more tasks.
+     */
+    private synchronized int[] getRowBlock() {
+      if (rowsAssigned == result.getRows()) {
+        return null;
+      }
+      int begin = rowsAssigned;
+      rowsAssigned += Math.min(DEFAULT_DENSE_BLOCK_ROWS, result.getRows() - rowsAssigned);
+
+      return new int[]{begin, rowsAssigned};
+    }
+
+    public void run() {
+      // This object runs in several threads at the same time, so the scratch is local
+      DenseRowsScratch scratch = new DenseRowsScratch(DEFAULT_DENSE_BLOCK_ROWS,
+          matrixA.getCols(), matrixB.getCols());
+      int[] rowBlock;
+
+      while ((rowBlock = getRowBlock()) != null) {
+        multiplyDenseRows(matrixA, matrixB, result, rowBlock[0], rowBlock[1], scratch);
+      }
+    }
+  } // End thread class
+
+  /**
+   * Method to calculate matrix multiplication of two dense matrices using multi-threading. The
+   * result is a direct matrix if matrixA is direct, otherwise a heap matrix.
+   */
+  public DenseIntMatrix multiThreadedMultiplyMatrix(DenseIntMatrix matrixA,
+                                                    DenseIntMatrix matrixB)
+      throws InterruptedException {
+    validateMatrixMultiply(matrixA.getCols(), matrixB.getRows());
+
+    DenseIntMatrix result = newDenseResult(matrixA, matrixB);
+    Thread calculationThread = new DenseMatrixMultiplicationThread(matrixA, matrixB, result,
+        "Dense Matrix Multiplication Thread");
+
+    runOnThreadPool(calculationThread);
+    return result;
+  }
+
+  /**
+   * Method to calculate matrix multiplication using Strassen-Winograd algorithm with fork-join.
+   * It's used only if both matrices are n x n and n is no less than the Strassen crossover,
+   * otherwise it falls back to the fork-join classical multiplication.
+   */
+  public int[][] strassenMultiplyMatrix(int[][] matrixA, int[][] matrixB) {
+    validateMatrixMultiply(matrixA[0].length, matrixB.length);
+
+    int n = matrixA.length;
+    boolean isSquare = matrixA[0].length == n && matrixB[0].length == n;
+
+    if (!isSquare || n < strassenCrossover) {
+      return ForkJoinMatrixMultiplication.multiply(matrixA, matrixB);
+    }
+    return StrassenMatrixMultiplication.multiply(matrixA, matrixB, strassenCrossover);
+  }
+
+  /**
+   * Measure where Strassen-Winograd starts to win on this machine, and use it as the Strassen
+   * crossover.
+   */
+  public int tuneStrassenCrossover() {
+    strassenCrossover = StrassenMatrixMultiplication.tuneCrossover();
+    return strassenCrossover;
+  }
+
+  /**
+   * Run the given task threadAmount times on a thread pool, and wait until all finished.
+   */
+  private void runOnThreadPool(Runnable task) throws InterruptedException {
+    ExecutorService pool = getThreadPool();
+    List<Future<?>> futures = new ArrayList<>();
+
     // Assign tasks
     for (int i = 0; i < threadAmount; i++) {
-      threadPool.execute(calculationThread);
+      futures.add(pool.submit(task));
+    }
+
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private synchronized ExecutorService getThreadPool() {
+    if (threadPool == null) {
+      AtomicInteger threadCount = new AtomicInteger();
+
+      threadPool = new ThreadPoolExecutor(
+          cpuCoreAmount,
+          cpuCoreAmount,
+          0,
+          TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<>(),
+          runnable -> {
+            Thread thread = new Thread(runnable,
+                "Matrix Multiplication Thread " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
     }
+    return threadPool;
+  }
 
-    threadPool.shutdown();
-    threadPool.awaitTermination(1, TimeUnit.HOURS);
+  /**
+   * Shut down the thread pool if this object owns it. A later call creates a new one.
+   */
+  @Override
+  public synchronized void close() {
+    if (ownsThreadPool && threadPool != null) {
+      threadPool.shutdown();
+      threadPool = null;
+    }
+  }
+
+  /**
+   * Return the transpose of the given matrix.
+   */
+  public static int[][] transposeMatrix(int[][] matrix) {
+    int[][] result = new int[matrix[0].length][matrix.length];
+
+    for (int i = 0; i < matrix.length; i++) {
+      for (int j = 0; j < matrix[0].length; j++) {
+        result[j][i] = matrix[i][j];
+      }
+    }
     return result;
   }
 
@@ -158,27 +872,52 @@ public class MatrixMultiplication {
    * @return A matrix
    */
   public static int[][] generateMatrix(int row, int col, int entryMin, int entryMax) {
-    int[][] matrix = new int[row][col];
+    return generateMatrix(row, col, entryMin, entryMax, ParallelRandomGenerator.newSeed());
+  }
 
-    for (int i = 0; i < row; i++) {
-      for (int j = 0; j < col; j++) {
-        matrix[i][j] = getRandom(entryMin, entryMax);
-      }
-    }
-    return matrix;
+  /**
+   * Method to generate a matrix whose entries are random number within the given range. Rows are
+   * generated in parallel, and the same seed always gives the same matrix.
+   */
+  public static int[][] generateMatrix(int row, int col, int entryMin, int entryMax, long seed) {
+    return ParallelRandomGenerator.generateIntMatrix(row, col, entryMin, entryMax, seed);
   }
 
-  private static int getRandom(int minVal, int maxVal) {
-    if (maxVal < minVal) {
-      throw new ArithmeticException("Max val is smaller than min val");
-    }
+  /**
+   * Method to generate a dense heap matrix whose entries are random number within the given
+   * range.
+   */
+  public static DenseIntMatrix generateDenseMatrix(int row, int col, int entryMin,
+                                                   int entryMax) {
+    return generateDenseMatrix(row, col, entryMin, entryMax, false);
+  }
 
-    if (random == null) {
-      // Ignore the data racing here, since it won't breaking anything...
-      random = new Random(System.currentTimeMillis());
-    }
+  /**
+   * Method to generate a dense matrix whose entries are random number within the given range.
+   * @param direct Whether to store the matrix outside the heap
+   */
+  public static DenseIntMatrix generateDenseMatrix(int row, int col, int entryMin, int entryMax,
+                                                   boolean direct) {
+    return generateDenseMatrix(row, col, entryMin, entryMax, direct,
+        ParallelRandomGenerator.newSeed());
+  }
+
+  /**
+   * Method to generate a dense matrix whose entries are random number within the given range.
+   * Rows are generated in parallel, and the entries are the same as generateMatrix() with the
+   * same seed.
+   */
+  public static DenseIntMatrix generateDenseMatrix(int row, int col, int entryMin, int entryMax,
+                                                   boolean direct, long seed) {
+    DenseIntMatrix matrix = direct
+        ? DenseIntMatrix.allocateDirect(row, col) : new DenseIntMatrix(row, col);
 
-    return random.nextInt((maxVal - minVal) + 1) + minVal;
+    IntStream.range(0, row).parallel().forEach(i -> {
+      int[] rowEntries = new int[col];
+      ParallelRandomGenerator.fillMatrixRow(rowEntries, i, entryMin, entryMax, seed);
+      matrix.setRow(i, rowEntries);
+    });
+    return matrix;
   }
 
   /**
@@ -199,6 +938,29 @@ public class MatrixMultiplication {
     return true;
   }
 
+  /**
+   * Method to check if two given dense matrices are identical. Heap and direct matrices with the
+   * same entries are identical.
+   */
+  public static boolean compareMatrix(DenseIntMatrix matrixA, DenseIntMatrix matrixB) {
+    if (matrixA.getRows() != matrixB.getRows() || matrixA.getCols() != matrixB.getCols()) {
+      return false;
+    }
+
+    int[] rowA = new int[matrixA.getCols()];
+    int[] rowB = new int[matrixB.getCols()];
+
+    for (int i = 0; i < matrixA.getRows(); i++) {
+      matrixA.getRow(i, rowA);
+      matrixB.getRow(i, rowB);
+
+      if (!Arrays.equals(rowA, rowB)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Print a matrix in column right-aligned manner.
    */
@@ -225,15 +987,60 @@ public class MatrixMultiplication {
   }
 
   public void setThreadAmount(int threadAmount) {
+    validateThreadAmount(threadAmount);
     this.threadAmount = threadAmount;
   }
 
+  private static void validateThreadAmount(int threadAmount) {
+    if (threadAmount < 1) {
+      throw new IllegalArgumentException("Thread amount must be positive");
+    }
+  }
+
   public int getCpuCoreAmount() {
     return cpuCoreAmount;
   }
 
-  public void setCpuCoreAmount(int cpuCoreAmount) {
+  /**
+   * Set the amount of threads of the pool this object owns. It has no effect on a given pool.
+   */
+  public synchronized void setCpuCoreAmount(int cpuCoreAmount) {
+    if (cpuCoreAmount < 1) {
+      throw new IllegalArgumentException("CPU core amount must be positive");
+    }
     this.cpuCoreAmount = cpuCoreAmount;
+
+    if (ownsThreadPool && threadPool != null) {
+      ThreadPoolExecutor pool = (ThreadPoolExecutor) threadPool;
+
+      // Core size must not exceed max size at any time
+      if (cpuCoreAmount > pool.getMaximumPoolSize()) {
+        pool.setMaximumPoolSize(cpuCoreAmount);
+        pool.setCorePoolSize(cpuCoreAmount);
+      } else {
+        pool.setCorePoolSize(cpuCoreAmount);
+        pool.setMaximumPoolSize(cpuCoreAmount);
+      }
+    }
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public void setBlockSize(int blockSize) {
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("Block size must be positive");
+    }
+    this.blockSize = blockSize;
+  }
+
+  public int getStrassenCrossover() {
+    return strassenCrossover;
+  }
+
+  public void setStrassenCrossover(int strassenCrossover) {
+    this.strassenCrossover = strassenCrossover;
   }
 
   private static void validateMatrixMultiply(int aCol, int bRow) {
@@ -273,6 +1080,36 @@ public class MatrixMultiplication {
 
     System.out.println("Is the result correct: " + compareMatrix(resultA, resultB));
 
+    startTime = System.currentTimeMillis();
+    int[][] resultC = matrixMul.multiThreadedBlockedMultiplyMatrix(matrixA, matrixB);
+    totalTime = (System.currentTimeMillis() - startTime) / 1000;
+    System.out.println("Multi thread blocked runtime: " + totalTime + "sec.");
+
+    System.out.println("Is the result correct: " + compareMatrix(resultA, resultC));
+
+    startTime = System.currentTimeMillis();
+    int[][] resultD = ForkJoinMatrixMultiplication.multiply(matrixA, matrixB);
+    totalTime = (System.currentTimeMillis() - startTime) / 1000;
+    System.out.println("Fork-join runtime: " + totalTime + "sec.");
+
+    System.out.println("Is the result correct: " + compareMatrix(resultA, resultD));
+
+    startTime = System.currentTimeMillis();
+    int[][] resultF = matrixMul.multiThreadedVectorizedMultiplyMatrix(matrixA, matrixB);
+    totalTime = (System.currentTimeMillis() - startTime) / 1000;
+    System.out.println("Multi thread vectorized runtime: " + totalTime + "sec.");
+
+    System.out.println("Is the result correct: " + compareMatrix(resultA, resultF));
+
+    System.out.println("Strassen crossover: " + matrixMul.tuneStrassenCrossover());
+    startTime = System.currentTimeMillis();
+    int[][] resultE = matrixMul.strassenMultiplyMatrix(matrixA, matrixB);
+    totalTime = (System.currentTimeMillis() - startTime) / 1000;
+    System.out.println("Strassen runtime: " + totalTime + "sec.");
+
+    System.out.println("Is the result correct: " + compareMatrix(resultA, resultE));
+    matrixMul.close();
+
     // Output:
     // Single thread runtime: 47sec.
     // Multi thread runtime: 11sec.
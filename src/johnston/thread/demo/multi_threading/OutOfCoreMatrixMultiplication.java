@@ -0,0 +1,420 @@
+package johnston.thread.demo.multi_threading;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Demo of multiplying matrices which are too large for the heap. Matrices are stored in files,
+ * and read or written through memory-mapped buffers (FileChannel.map).
+ *
+ * File format, little-endian:
+ *  - Header: int magic number 0x4D415458 ("MATX"), int rows, int cols, int 0;
+ *  - Entries: rows * cols ints, row by row.
+ *
+ * C = A * B is calculated band by band: a band is a group of rows of C which is held in heap.
+ * For each band, the shared dimension is split into tiles, and each tile of A and B is copied
+ * into heap and added to the band by the working threads. So the heap holds at most one band and
+ * two pairs of tiles, whatever the matrix size. While the working threads calculate one tile, a
+ * loader thread reads the next one, so the disk and the CPU cores are busy at the same time.
+ */
+public class OutOfCoreMatrixMultiplication {
+  public static final int MAGIC_NUMBER = 0x4D415458;
+  public static final int HEADER_BYTES = 16;
+  private static final long DEFAULT_TILE_BYTES = 64L << 20;
+  private static final int DEFAULT_ROW_BLOCK = 16;
+
+  private final ExecutorService threadPool;
+  private final int threadAmount;
+  private long tileBytes = DEFAULT_TILE_BYTES;
+
+  /**
+   * Run on the common fork-join pool.
+   */
+  public OutOfCoreMatrixMultiplication() {
+    this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+  }
+
+  /**
+   * Run on the given pool with the given amount of working threads.
+   */
+  public OutOfCoreMatrixMultiplication(ExecutorService threadPool, int threadAmount) {
+    this.threadPool = threadPool;
+    this.threadAmount = Math.max(threadAmount, 1);
+  }
+
+  /**
+   * A tile of A (band rows x tile k) and B (tile k x B cols) copied into heap.
+   */
+  static class Tile {
+    private final int[][] aTile;
+    private final int[][] bTile;
+
+    Tile(int[][] aTile, int[][] bTile) {
+      this.aTile = aTile;
+      this.bTile = bTile;
+    }
+  }
+
+  /**
+   * Calculate C = A * B, where each matrix is a matrix file. File C is created or overwritten.
+   */
+  public void multiply(Path pathA, Path pathB, Path pathC)
+      throws IOException, InterruptedException {
+    try (FileChannel channelA = FileChannel.open(pathA, StandardOpenOption.READ);
+         FileChannel channelB = FileChannel.open(pathB, StandardOpenOption.READ);
+         FileChannel channelC = FileChannel.open(pathC, StandardOpenOption.CREATE,
+             StandardOpenOption.READ, StandardOpenOption.WRITE,
+             StandardOpenOption.TRUNCATE_EXISTING)) {
+      int[] sizeA = readHeader(channelA);
+      int[] sizeB = readHeader(channelB);
+
+      if (sizeA[1] != sizeB[0]) {
+        throw new ArithmeticException("Column of matrixA does not match row of matrixB");
+      }
+
+      int aRow = sizeA[0];
+      int aColBRow = sizeA[1];
+      int bCol = sizeB[1];
+      writeHeader(channelC, aRow, bCol);
+
+      // C has no entries
+      if (aRow == 0 || bCol == 0) {
+        return;
+      }
+
+      // Each of the band, the A tile, and the B tile is within tileBytes, and so is the mapped
+      // region of A rows
+      long maxTileEntries = tileBytes / Integer.BYTES;
+      int bandRows = (int) Math.max(1, Math.min(aRow,
+          maxTileEntries / Math.max(bCol, aColBRow)));
+      int tileK = (int) Math.max(1, Math.min(aColBRow,
+          maxTileEntries / Math.max(bandRows, bCol)));
+
+      // No tiles, and all entries of C are 0
+      if (aColBRow == 0) {
+        for (int rowBegin = 0; rowBegin < aRow; rowBegin += bandRows) {
+          writeRows(channelC, rowBegin, bCol, new int[Math.min(bandRows, aRow - rowBegin)][bCol]);
+        }
+        return;
+      }
+
+      List<long[]> tileOrder = new ArrayList<>();
+
+      for (int rowBegin = 0; rowBegin < aRow; rowBegin += bandRows) {
+        for (int kBegin = 0; kBegin < aColBRow; kBegin += tileK) {
+          tileOrder.add(new long[]{rowBegin, Math.min(rowBegin + bandRows, aRow),
+              kBegin, Math.min(kBegin + tileK, aColBRow)});
+        }
+      }
+
+      ExecutorService loader = Executors.newSingleThreadExecutor();
+      try {
+        Future<Tile> nextTile = loader.submit(() -> loadTile(channelA, channelB, aColBRow, bCol,
+            tileOrder.get(0)));
+        int[][] band = null;
+
+        for (int t = 0; t < tileOrder.size(); t++) {
+          long[] range = tileOrder.get(t);
+          Tile tile = nextTile.get();
+
+          if (t + 1 < tileOrder.size()) {
+            long[] nextRange = tileOrder.get(t + 1);
+            nextTile = loader.submit(() -> loadTile(channelA, channelB, aColBRow, bCol,
+                nextRange));
+          }
+
+          if (range[2] == 0) {
+            band = new int[(int) (range[1] - range[0])][bCol];
+          }
+          addTile(tile, band);
+
+          if (range[3] == aColBRow) {
+            writeRows(channelC, range[0], bCol, band);
+          }
+        }
+      } catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      } finally {
+        loader.shutdown();
+      }
+    }
+  }
+
+  private static Tile loadTile(FileChannel channelA, FileChannel channelB, int aColBRow,
+                               int bCol, long[] range) throws IOException {
+    int rows = (int) (range[1] - range[0]);
+    int kBegin = (int) range[2];
+    int tileK = (int) (range[3] - range[2]);
+    IntBuffer bufferA = map(channelA, FileChannel.MapMode.READ_ONLY, range[0], rows, aColBRow);
+    IntBuffer bufferB = map(channelB, FileChannel.MapMode.READ_ONLY, kBegin, tileK, bCol);
+    int[][] aTile = new int[rows][tileK];
+    int[][] bTile = new int[tileK][bCol];
+
+    for (int i = 0; i < rows; i++) {
+      bufferA.position(i * aColBRow + kBegin);
+      bufferA.get(aTile[i]);
+    }
+    for (int k = 0; k < tileK; k++) {
+      bufferB.get(bTile[k]);
+    }
+    return new Tile(aTile, bTile);
+  }
+
+  /**
+   * band += aTile * bTile. Working threads claim blocks of rows of the band.
+   */
+  private void addTile(Tile tile, int[][] band) throws InterruptedException {
+    AtomicInteger rowsAssigned = new AtomicInteger();
+    List<Future<?>> futures = new ArrayList<>();
+
+    for (int i = 0; i < threadAmount; i++) {
+      futures.add(threadPool.submit(() -> {
+        int begin;
+
+        while ((begin = rowsAssigned.getAndAdd(DEFAULT_ROW_BLOCK)) < band.length) {
+          MatrixMultiplication.multiplyRows(tile.aTile, tile.bTile, band, begin,
+              Math.min(begin + DEFAULT_ROW_BLOCK, band.length), tile.bTile.length);
+        }
+      }));
+    }
+
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Map rows [rowBegin, rowBegin + rows) of a matrix file with the given columns.
+   */
+  private static IntBuffer map(FileChannel channel, FileChannel.MapMode mode, long rowBegin,
+                               int rows, int cols) throws IOException {
+    long bytes = (long) rows * cols * Integer.BYTES;
+
+    if (bytes > Integer.MAX_VALUE) {
+      throw new IOException("Mapped region is too large: " + bytes + " bytes");
+    }
+
+    MappedByteBuffer buffer = channel.map(mode,
+        HEADER_BYTES + rowBegin * cols * Integer.BYTES, bytes);
+    return buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+  }
+
+  private static void writeRows(FileChannel channel, long rowBegin, int cols, int[][] rows)
+      throws IOException {
+    IntBuffer buffer = map(channel, FileChannel.MapMode.READ_WRITE, rowBegin, rows.length, cols);
+
+    for (int[] row : rows) {
+      buffer.put(row);
+    }
+  }
+
+  /**
+   * Return {rows, cols} of the matrix file.
+   */
+  public static int[] readHeader(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+      // Keep reading until the header is full
+    }
+    header.flip();
+
+    if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC_NUMBER) {
+      throw new IOException("Not a matrix file");
+    }
+
+    int rows = header.getInt();
+    int cols = header.getInt();
+    if (rows < 0 || cols < 0) {
+      throw new IOException("Not a matrix file");
+    }
+    if (channel.size() < HEADER_BYTES + (long) rows * cols * Integer.BYTES) {
+      throw new IOException("Matrix file is truncated");
+    }
+    return new int[]{rows, cols};
+  }
+
+  private static void writeHeader(FileChannel channel, int rows, int cols) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC_NUMBER).putInt(rows).putInt(cols).putInt(0);
+    header.flip();
+
+    while (header.hasRemaining()) {
+      channel.write(header, header.position());
+    }
+  }
+
+  /**
+   * Write a matrix file whose entries are random number within the given range. Entries are
+   * generated row by row, so the matrix doesn't need to fit in heap.
+   */
+  public static void generateMatrixFile(Path path, int rows, int cols, int entryMin,
+                                        int entryMax, long seed) throws IOException {
+    Random random = new Random(seed);
+    int[] row = new int[cols];
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeHeader(channel, rows, cols);
+      int bandRows = (int) Math.max(1, Math.min(rows, DEFAULT_TILE_BYTES / Integer.BYTES
+          / Math.max(cols, 1)));
+
+      for (int rowBegin = 0; rowBegin < rows; rowBegin += bandRows) {
+        int bandSize = Math.min(bandRows, rows - rowBegin);
+        IntBuffer buffer = map(channel, FileChannel.MapMode.READ_WRITE, rowBegin, bandSize,
+            cols);
+
+        for (int i = 0; i < bandSize; i++) {
+          for (int j = 0; j < cols; j++) {
+            row[j] = random.nextInt(entryMax - entryMin + 1) + entryMin;
+          }
+          buffer.put(row);
+        }
+      }
+    }
+  }
+
+  /**
+   * Check C == A * B on the given amount of random rows of C. Each row is calculated by reading
+   * row i of A and all of B once, so it works for any file size.
+   */
+  public static boolean verify(Path pathA, Path pathB, Path pathC, int sampleRows, long seed)
+      throws IOException {
+    try (FileChannel channelA = FileChannel.open(pathA, StandardOpenOption.READ);
+         FileChannel channelB = FileChannel.open(pathB, StandardOpenOption.READ);
+         FileChannel channelC = FileChannel.open(pathC, StandardOpenOption.READ)) {
+      int[] sizeA = readHeader(channelA);
+      int[] sizeB = readHeader(channelB);
+      int[] sizeC = readHeader(channelC);
+
+      if (sizeA[1] != sizeB[0] || sizeC[0] != sizeA[0] || sizeC[1] != sizeB[1]) {
+        return false;
+      }
+      // C has no entries to check
+      if (sizeA[0] == 0 || sizeB[1] == 0) {
+        return true;
+      }
+
+      Random random = new Random(seed);
+      int bandRows = (int) Math.max(1, Math.min(sizeB[0],
+          DEFAULT_TILE_BYTES / Integer.BYTES / sizeB[1]));
+      int[] aRow = new int[sizeA[1]];
+      int[] bRow = new int[sizeB[1]];
+      int[] cRow = new int[sizeC[1]];
+
+      for (int sample = 0; sample < sampleRows; sample++) {
+        int i = random.nextInt(sizeA[0]);
+        int[] expected = new int[sizeB[1]];
+        map(channelA, FileChannel.MapMode.READ_ONLY, i, 1, sizeA[1]).get(aRow);
+
+        for (int kBegin = 0; kBegin < sizeB[0]; kBegin += bandRows) {
+          int bandSize = Math.min(bandRows, sizeB[0] - kBegin);
+          IntBuffer bufferB = map(channelB, FileChannel.MapMode.READ_ONLY, kBegin, bandSize,
+              sizeB[1]);
+
+          for (int k = kBegin; k < kBegin + bandSize; k++) {
+            bufferB.get(bRow);
+
+            for (int j = 0; j < bRow.length; j++) {
+              expected[j] += aRow[k] * bRow[j];
+            }
+          }
+        }
+
+        map(channelC, FileChannel.MapMode.READ_ONLY, i, 1, sizeC[1]).get(cRow);
+        for (int j = 0; j < cRow.length; j++) {
+          if (cRow[j] != expected[j]) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Read a whole matrix file into heap.
+   */
+  public static int[][] readMatrixFile(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      int[] size = readHeader(channel);
+      int[][] matrix = new int[size[0]][size[1]];
+      IntBuffer buffer = map(channel, FileChannel.MapMode.READ_ONLY, 0, size[0], size[1]);
+
+      for (int[] row : matrix) {
+        buffer.get(row);
+      }
+      return matrix;
+    }
+  }
+
+  /**
+   * Write a matrix in heap into a matrix file.
+   */
+  public static void writeMatrixFile(Path path, int[][] matrix) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeHeader(channel, matrix.length, matrix[0].length);
+      writeRows(channel, 0, matrix[0].length, matrix);
+    }
+  }
+
+  public long getTileBytes() {
+    return tileBytes;
+  }
+
+  /**
+   * Set the maximum bytes of a band or a tile in heap.
+   */
+  public void setTileBytes(long tileBytes) {
+    this.tileBytes = tileBytes;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Path pathA = Files.createTempFile("matrixA", ".bin");
+    Path pathB = Files.createTempFile("matrixB", ".bin");
+    Path pathC = Files.createTempFile("matrixC", ".bin");
+    int n = 2000;
+
+    try {
+      generateMatrixFile(pathA, n, n, -5, 5, 1);
+      generateMatrixFile(pathB, n, n, -5, 5, 2);
+
+      OutOfCoreMatrixMultiplication matrixMul = new OutOfCoreMatrixMultiplication();
+      // Small tiles to show the streaming with a small heap
+      matrixMul.setTileBytes(1 << 20);
+      long startTime = System.currentTimeMillis();
+      matrixMul.multiply(pathA, pathB, pathC);
+      System.out.println("Out-of-core runtime: " + (System.currentTimeMillis() - startTime)
+          + "ms.");
+
+      System.out.println("Is the result correct: " + verify(pathA, pathB, pathC, 5, 3));
+    } finally {
+      Files.deleteIfExists(pathA);
+      Files.deleteIfExists(pathB);
+      Files.deleteIfExists(pathC);
+    }
+  }
+}
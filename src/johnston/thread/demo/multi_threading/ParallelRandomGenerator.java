@@ -0,0 +1,160 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Fill large arrays with random numbers in parallel.
+ *
+ * The array is split into chunks of fixed length, and each chunk has its own SplittableRandom
+ * whose seed is mixed from the user seed and the chunk index. The chunks are filled in parallel
+ * on the common fork-join pool. Since the chunk length doesn't depend on the amount of threads,
+ * the same seed always gives the same array, no matter how many threads run.
+ */
+public class ParallelRandomGenerator {
+  private static final int CHUNK_LENGTH = 1 << 16;
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  private ParallelRandomGenerator() {
+  }
+
+  /**
+   * Return a seed which differs on every call, for callers which don't need reproducibility.
+   */
+  public static long newSeed() {
+    return mix64(System.nanoTime() ^ Thread.currentThread().getId() * GOLDEN_GAMMA);
+  }
+
+  /**
+   * Fill the array with random ints within [entryMin, entryMax].
+   */
+  public static void fillInts(int[] array, int entryMin, int entryMax, long seed) {
+    validateRange(entryMin, entryMax);
+
+    forEachChunk(array.length, seed, (random, begin, end) -> {
+      for (int i = begin; i < end; i++) {
+        array[i] = nextInt(random, entryMin, entryMax);
+      }
+    });
+  }
+
+  /**
+   * Fill the array with random doubles within [entryMin, entryMax).
+   */
+  public static void fillDoubles(double[] array, double entryMin, double entryMax, long seed) {
+    if (entryMax < entryMin) {
+      throw new ArithmeticException("Max val is smaller than min val");
+    }
+
+    forEachChunk(array.length, seed, (random, begin, end) -> {
+      for (int i = begin; i < end; i++) {
+        array[i] = random.nextDouble() * (entryMax - entryMin) + entryMin;
+      }
+    });
+  }
+
+  /**
+   * Return a matrix of random ints within [entryMin, entryMax]. Each row is a chunk.
+   */
+  public static int[][] generateIntMatrix(int rows, int cols, int entryMin, int entryMax,
+                                          long seed) {
+    validateRange(entryMin, entryMax);
+    int[][] matrix = new int[rows][cols];
+
+    IntStream.range(0, rows).parallel()
+        .forEach(i -> fillMatrixRow(matrix[i], i, entryMin, entryMax, seed));
+    return matrix;
+  }
+
+  /**
+   * Fill the row with the same random ints as row rowIdx of generateIntMatrix() with the same
+   * seed.
+   */
+  public static void fillMatrixRow(int[] row, int rowIdx, int entryMin, int entryMax,
+                                   long seed) {
+    validateRange(entryMin, entryMax);
+    SplittableRandom random = new SplittableRandom(mix64(seed + rowIdx * GOLDEN_GAMMA));
+
+    for (int j = 0; j < row.length; j++) {
+      row[j] = nextInt(random, entryMin, entryMax);
+    }
+  }
+
+  /**
+   * Return an array of distinct random ints, none of which is Integer.MIN_VALUE.
+   *
+   * Entry i is f(i), where f is a bijection on 32-bit ints scrambled by the seed, so the entries
+   * are distinct without any lookup or shuffle, and each can be calculated on its own. If
+   * f(i) is MIN_VALUE, f(MIN_VALUE) is used instead, which no other i can map to.
+   */
+  public static int[] generateUniqueInts(int length, long seed) {
+    int[] array = new int[length];
+    int keyA = (int) mix64(seed);
+    int keyB = (int) mix64(seed + GOLDEN_GAMMA);
+
+    IntStream.range(0, (length + CHUNK_LENGTH - 1) / CHUNK_LENGTH).parallel().forEach(chunk -> {
+      int end = Math.min((chunk + 1) * CHUNK_LENGTH, length);
+
+      for (int i = chunk * CHUNK_LENGTH; i < end; i++) {
+        int val = permute(i, keyA, keyB);
+        array[i] = val != Integer.MIN_VALUE ? val : permute(Integer.MIN_VALUE, keyA, keyB);
+      }
+    });
+    return array;
+  }
+
+  /**
+   * Filling of [begin, end) of a chunk with its own random generator.
+   */
+  interface ChunkFiller {
+    void fill(SplittableRandom random, int begin, int end);
+  }
+
+  private static void forEachChunk(int length, long seed, ChunkFiller filler) {
+    int chunkAmount = (length + CHUNK_LENGTH - 1) / CHUNK_LENGTH;
+
+    IntStream.range(0, chunkAmount).parallel().forEach(chunk -> {
+      SplittableRandom random = new SplittableRandom(mix64(seed + chunk * GOLDEN_GAMMA));
+      int begin = chunk * CHUNK_LENGTH;
+      filler.fill(random, begin, Math.min(begin + CHUNK_LENGTH, length));
+    });
+  }
+
+  private static int nextInt(SplittableRandom random, int entryMin, int entryMax) {
+    if (entryMax < Integer.MAX_VALUE) {
+      return random.nextInt(entryMin, entryMax + 1);
+    }
+    // Bound entryMax + 1 overflows, so shift the range down by one
+    return entryMin == Integer.MIN_VALUE ? random.nextInt()
+        : random.nextInt(entryMin - 1, entryMax) + 1;
+  }
+
+  private static void validateRange(int entryMin, int entryMax) {
+    if (entryMax < entryMin) {
+      throw new ArithmeticException("Max val is smaller than min val");
+    }
+  }
+
+  /**
+   * A keyed bijection on 32-bit ints. Xor with a constant, multiplying by an odd number, and
+   * x ^= x >>> s are all invertible, so the composition is too.
+   */
+  private static int permute(int x, int keyA, int keyB) {
+    x ^= keyA;
+    x ^= x >>> 16;
+    x *= 0x7FEB352D;
+    x ^= x >>> 15;
+    x *= 0x846CA68B;
+    x ^= x >>> 16;
+    return x ^ keyB;
+  }
+
+  /**
+   * Stafford's variant 13 of the MurmurHash3 finalizer, also used by SplittableRandom.
+   */
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,281 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Demo of calculating the angle between two quantized vectors (Int8Vector or HalfFloatVector) in
+ * parallel, without converting them back to double[].
+ *
+ * Besides the three sums a * b, |a|^2 and |b|^2, each working thread sums up how far they can be
+ * from the sums of the original vectors. With stored value a' = a + e and |e| <= d:
+ *  - |a * b - a' * b'| <= |a'| * db + |b'| * da + da * db;
+ *  - |a^2 - a'^2| <= 2 * |a'| * da + da^2.
+ * The sums of |a'| and |a' * b'| would cost as much as the sums themselves, so they are bounded
+ * by Cauchy-Schwarz instead: sum(|a'|) <= sqrt(n * |a'|^2), sum(|a' * b'|) <= |a'| * |b'|. The
+ * angle error bound is then the widest angle within those ranges. It covers the quantization
+ * error only, not the rounding of the sums in double.
+ *
+ * Like AngleBetweenTwoVectors, threads claim chunks by an atomic counter and write to padded
+ * slots, which are combined in chunk order.
+ */
+public class QuantizedAngleBetweenTwoVectors {
+  // A multiple of Int8Vector.BLOCK_SIZE, so that no block is split between chunks
+  private static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+  private static final int PARTIAL_SLOT_STRIDE = 16;
+
+  private final ExecutorService threadPool;
+  private final int threadAmount;
+
+  /**
+   * Run on the common fork-join pool.
+   */
+  public QuantizedAngleBetweenTwoVectors() {
+    this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+  }
+
+  /**
+   * Run on the given pool with the given amount of working threads.
+   */
+  public QuantizedAngleBetweenTwoVectors(ExecutorService threadPool, int threadAmount) {
+    this.threadPool = threadPool;
+    this.threadAmount = Math.max(threadAmount, 1);
+  }
+
+  /**
+   * The dot product and the angle with their error bounds against the original vectors.
+   */
+  public static class Result {
+    private final double dotProduct;
+    private final double dotProductErrorBound;
+    private final double angle;
+    private final double angleErrorBound;
+
+    Result(double dotProduct, double dotProductError, double aLengthSquare,
+           double aLengthSquareError, double bLengthSquare, double bLengthSquareError) {
+      this.dotProduct = dotProduct;
+      this.dotProductErrorBound = dotProductError;
+      this.angle = getAngle(dotProduct, aLengthSquare, bLengthSquare);
+
+      double dotMin = dotProduct - dotProductError;
+      double dotMax = dotProduct + dotProductError;
+      double aMin = Math.max(aLengthSquare - aLengthSquareError, 0);
+      double aMax = aLengthSquare + aLengthSquareError;
+      double bMin = Math.max(bLengthSquare - bLengthSquareError, 0);
+      double bMax = bLengthSquare + bLengthSquareError;
+
+      // Smallest angle has the largest cosine, and the other way round
+      double angleMin = dotMax >= 0 ? getAngle(dotMax, aMin, bMin) : getAngle(dotMax, aMax, bMax);
+      double angleMax = dotMin >= 0 ? getAngle(dotMin, aMax, bMax) : getAngle(dotMin, aMin, bMin);
+      this.angleErrorBound = Math.max(angle - angleMin, angleMax - angle);
+    }
+
+    private static double getAngle(double dotProduct, double aLengthSquare,
+                                   double bLengthSquare) {
+      double cosine = dotProduct / Math.sqrt(aLengthSquare) / Math.sqrt(bLengthSquare);
+
+      if (Double.isNaN(cosine)) {
+        // 0 / 0: any angle is possible
+        cosine = dotProduct >= 0 ? 1 : -1;
+      }
+      return Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, cosine))));
+    }
+
+    public double getDotProduct() {
+      return dotProduct;
+    }
+
+    public double getDotProductErrorBound() {
+      return dotProductErrorBound;
+    }
+
+    /**
+     * Return the angle in degrees.
+     */
+    public double getAngle() {
+      return angle;
+    }
+
+    public double getAngleErrorBound() {
+      return angleErrorBound;
+    }
+  }
+
+  /**
+   * Sums of [begin, end) written into partials[slot...slot + 5] as: a * b, its error, |a|^2,
+   * its error, |b|^2 and its error.
+   */
+  interface ChunkKernel {
+    void sum(int begin, int end, double[] partials, int slot);
+  }
+
+  public Result getAngle(Int8Vector vecA, Int8Vector vecB) throws InterruptedException {
+    checkLength(vecA.getLength(), vecB.getLength());
+    byte[] valuesA = vecA.getValues();
+    byte[] valuesB = vecB.getValues();
+    float[] scalesA = vecA.getScales();
+    float[] scalesB = vecB.getScales();
+
+    return runChunks(vecA.getLength(), (begin, end, partials, slot) -> {
+      for (int blockBegin = begin; blockBegin < end; blockBegin += Int8Vector.BLOCK_SIZE) {
+        int blockEnd = Math.min(blockBegin + Int8Vector.BLOCK_SIZE, end);
+        // 64 * 127 * 127 fits in int, so a block is summed in int
+        int dotProduct = 0;
+        int aLengthSquare = 0;
+        int bLengthSquare = 0;
+
+        for (int i = blockBegin; i < blockEnd; i++) {
+          int a = valuesA[i];
+          int b = valuesB[i];
+          dotProduct += a * b;
+          aLengthSquare += a * a;
+          bLengthSquare += b * b;
+        }
+
+        int block = blockBegin / Int8Vector.BLOCK_SIZE;
+        double scaleA = scalesA[block];
+        double scaleB = scalesB[block];
+        double errorA = scaleA / 2;
+        double errorB = scaleB / 2;
+        int blockLength = blockEnd - blockBegin;
+        double aAbsSum = Math.sqrt((double) blockLength * aLengthSquare) * scaleA;
+        double bAbsSum = Math.sqrt((double) blockLength * bLengthSquare) * scaleB;
+
+        partials[slot] += dotProduct * scaleA * scaleB;
+        partials[slot + 1] += aAbsSum * errorB + bAbsSum * errorA + blockLength * errorA * errorB;
+        partials[slot + 2] += aLengthSquare * scaleA * scaleA;
+        partials[slot + 3] += (2 * aAbsSum + blockLength * errorA) * errorA;
+        partials[slot + 4] += bLengthSquare * scaleB * scaleB;
+        partials[slot + 5] += (2 * bAbsSum + blockLength * errorB) * errorB;
+      }
+    });
+  }
+
+  public Result getAngle(HalfFloatVector vecA, HalfFloatVector vecB)
+      throws InterruptedException {
+    checkLength(vecA.getLength(), vecB.getLength());
+
+    return runChunks(vecA.getLength(), (begin, end, partials, slot) -> {
+      double dotProduct = 0;
+      double aLengthSquare = 0;
+      double bLengthSquare = 0;
+
+      for (int i = begin; i < end; i++) {
+        double a = vecA.get(i);
+        double b = vecB.get(i);
+        dotProduct += a * b;
+        aLengthSquare += a * a;
+        bLengthSquare += b * b;
+      }
+
+      // With error e = r * |x'| + s for each entry, summed over the chunk
+      double r = HalfFloatVector.RELATIVE_ERROR;
+      double s = HalfFloatVector.SUBNORMAL_ERROR;
+      int length = end - begin;
+      double aAbsSum = Math.sqrt(length * aLengthSquare);
+      double bAbsSum = Math.sqrt(length * bLengthSquare);
+      double absDotProduct = Math.sqrt(aLengthSquare * bLengthSquare);
+
+      partials[slot] = dotProduct;
+      partials[slot + 1] = absDotProduct * (2 * r + r * r) + (aAbsSum + bAbsSum) * (s + r * s)
+          + length * s * s;
+      partials[slot + 2] = aLengthSquare;
+      partials[slot + 3] = aLengthSquare * (2 * r + r * r) + aAbsSum * (2 * s + 2 * r * s)
+          + length * s * s;
+      partials[slot + 4] = bLengthSquare;
+      partials[slot + 5] = bLengthSquare * (2 * r + r * r) + bAbsSum * (2 * s + 2 * r * s)
+          + length * s * s;
+    });
+  }
+
+  /**
+   * Let working threads claim chunks of [0, length) until none left, then combine their sums in
+   * chunk order.
+   */
+  private Result runChunks(int length, ChunkKernel kernel) throws InterruptedException {
+    int chunkAmount = (length + DEFAULT_CHUNK_SIZE - 1) / DEFAULT_CHUNK_SIZE;
+    double[] partials = new double[chunkAmount * PARTIAL_SLOT_STRIDE];
+    AtomicInteger nextChunk = new AtomicInteger();
+    Callable<Void> worker = () -> {
+      int chunk;
+
+      while ((chunk = nextChunk.getAndIncrement()) < chunkAmount) {
+        int begin = chunk * DEFAULT_CHUNK_SIZE;
+        kernel.sum(begin, Math.min(begin + DEFAULT_CHUNK_SIZE, length), partials,
+            chunk * PARTIAL_SLOT_STRIDE);
+      }
+      return null;
+    };
+
+    List<Future<Void>> futures = new ArrayList<>();
+    for (int i = 0; i < threadAmount; i++) {
+      futures.add(threadPool.submit(worker));
+    }
+
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+
+    double[] sums = new double[6];
+    for (int slot = 0; slot < partials.length; slot += PARTIAL_SLOT_STRIDE) {
+      for (int i = 0; i < sums.length; i++) {
+        sums[i] += partials[slot + i];
+      }
+    }
+    return new Result(sums[0], sums[1], sums[2], sums[3], sums[4], sums[5]);
+  }
+
+  private static void checkLength(int lengthA, int lengthB) {
+    if (lengthA != lengthB) {
+      throw new ArithmeticException("Two vectors have different length.");
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int vecLength = 50000000;
+    double[] vecA = AngleBetweenTwoVectors.getRandomVector(vecLength, -10, 10);
+    double[] vecB = AngleBetweenTwoVectors.getRandomVector(vecLength, -10, 10);
+    for (int i = 0; i < vecLength; i++) {
+      // Make the angle smaller than 90 degrees
+      vecB[i] += vecA[i];
+    }
+
+    long startTime = System.currentTimeMillis();
+    double expected = new AngleBetweenTwoVectors().getAngleBetweenTwoVectorsChunked(vecA, vecB);
+    System.out.println("Double runtime: " + (System.currentTimeMillis() - startTime) + "ms.");
+
+    QuantizedAngleBetweenTwoVectors quantizedAngle = new QuantizedAngleBetweenTwoVectors();
+    Int8Vector int8A = Int8Vector.fromArray(vecA);
+    Int8Vector int8B = Int8Vector.fromArray(vecB);
+    startTime = System.currentTimeMillis();
+    Result int8Result = quantizedAngle.getAngle(int8A, int8B);
+    System.out.println("Int8 runtime: " + (System.currentTimeMillis() - startTime) + "ms.");
+
+    HalfFloatVector halfA = HalfFloatVector.fromArray(vecA);
+    HalfFloatVector halfB = HalfFloatVector.fromArray(vecB);
+    startTime = System.currentTimeMillis();
+    Result halfResult = quantizedAngle.getAngle(halfA, halfB);
+    System.out.println("Float16 runtime: " + (System.currentTimeMillis() - startTime) + "ms.");
+
+    System.out.println("Double angle: " + expected);
+    System.out.println("Int8 angle: " + int8Result.getAngle() + ", error "
+        + Math.abs(int8Result.getAngle() - expected) + ", bound "
+        + int8Result.getAngleErrorBound());
+    System.out.println("Float16 angle: " + halfResult.getAngle() + ", error "
+        + Math.abs(halfResult.getAngle() - expected) + ", bound "
+        + halfResult.getAngleErrorBound());
+    System.out.println("Is the result correct: "
+        + (Math.abs(int8Result.getAngle() - expected) <= int8Result.getAngleErrorBound()
+        && Math.abs(halfResult.getAngle() - expected) <= halfResult.getAngleErrorBound()));
+  }
+}
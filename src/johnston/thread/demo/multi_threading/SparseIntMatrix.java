@@ -0,0 +1,142 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.Arrays;
+
+/**
+ * Sparse int matrix in compressed sparse row (CSR) format. Only non-zero entries are stored:
+ *  - values[]: non-zero entries row by row;
+ *  - colIdx[]: column of each entry in values[];
+ *  - rowPtr[]: entries of row i are in values[rowPtr[i], rowPtr[i + 1]).
+ *
+ * Entries in a row are ordered by column. The compressed sparse column (CSC) format of a matrix
+ * is the CSR format of its transpose, so toCsc() simply returns the transpose.
+ *
+ * Memory is O(rows + non-zero entries), instead of O(rows * cols) for int[][].
+ */
+public class SparseIntMatrix {
+  private final int rows;
+  private final int cols;
+  private final int[] rowPtr;
+  private final int[] colIdx;
+  private final int[] values;
+
+  public SparseIntMatrix(int rows, int cols, int[] rowPtr, int[] colIdx, int[] values) {
+    if (rowPtr.length != rows + 1 || colIdx.length != values.length
+        || rowPtr[rows] != values.length) {
+      throw new IllegalArgumentException("Invalid CSR arrays");
+    }
+
+    this.rows = rows;
+    this.cols = cols;
+    this.rowPtr = rowPtr;
+    this.colIdx = colIdx;
+    this.values = values;
+  }
+
+  /**
+   * Convert a dense int[][] matrix into CSR format.
+   */
+  public static SparseIntMatrix fromDense(int[][] matrix) {
+    int rows = matrix.length;
+    int cols = matrix[0].length;
+    int[] rowPtr = new int[rows + 1];
+
+    for (int i = 0; i < rows; i++) {
+      int nonZeros = 0;
+      for (int entry : matrix[i]) {
+        if (entry != 0) {
+          nonZeros++;
+        }
+      }
+      rowPtr[i + 1] = rowPtr[i] + nonZeros;
+    }
+
+    int[] colIdx = new int[rowPtr[rows]];
+    int[] values = new int[rowPtr[rows]];
+    int idx = 0;
+
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        if (matrix[i][j] != 0) {
+          colIdx[idx] = j;
+          values[idx++] = matrix[i][j];
+        }
+      }
+    }
+    return new SparseIntMatrix(rows, cols, rowPtr, colIdx, values);
+  }
+
+  /**
+   * Convert this matrix into a dense int[][] matrix.
+   */
+  public int[][] toDense() {
+    int[][] result = new int[rows][cols];
+
+    for (int i = 0; i < rows; i++) {
+      for (int idx = rowPtr[i]; idx < rowPtr[i + 1]; idx++) {
+        result[i][colIdx[idx]] = values[idx];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return the transpose in CSR format by counting sort on columns. The entries of each row of
+   * the transpose stay ordered, since rows of this matrix are visited in order.
+   */
+  public SparseIntMatrix transpose() {
+    int[] tRowPtr = new int[cols + 1];
+
+    for (int col : colIdx) {
+      tRowPtr[col + 1]++;
+    }
+    for (int j = 0; j < cols; j++) {
+      tRowPtr[j + 1] += tRowPtr[j];
+    }
+
+    int[] next = Arrays.copyOf(tRowPtr, cols);
+    int[] tColIdx = new int[values.length];
+    int[] tValues = new int[values.length];
+
+    for (int i = 0; i < rows; i++) {
+      for (int idx = rowPtr[i]; idx < rowPtr[i + 1]; idx++) {
+        int pos = next[colIdx[idx]]++;
+        tColIdx[pos] = i;
+        tValues[pos] = values[idx];
+      }
+    }
+    return new SparseIntMatrix(cols, rows, tRowPtr, tColIdx, tValues);
+  }
+
+  /**
+   * Return this matrix in CSC format, i.e. the CSR format of the transpose: rowPtr[] points to
+   * columns and colIdx[] holds rows.
+   */
+  public SparseIntMatrix toCsc() {
+    return transpose();
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  public int getCols() {
+    return cols;
+  }
+
+  public int getNonZeroAmount() {
+    return values.length;
+  }
+
+  int[] getRowPtr() {
+    return rowPtr;
+  }
+
+  int[] getColIdx() {
+    return colIdx;
+  }
+
+  int[] getValues() {
+    return values;
+  }
+}
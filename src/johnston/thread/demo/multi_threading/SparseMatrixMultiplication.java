@@ -0,0 +1,277 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Demo of using multi-threading to multiply sparse matrices in CSR format. The runtime and memory
+ * depend on the amount of non-zero entries instead of n^2 and n^3.
+ *
+ * Working threads claim blocks of rows from an atomic counter until no rows left:
+ *  - SpMV (y = A * x): each row of y is a dot product of a sparse row of A and x;
+ *  - SpGEMM (C = A * B): row i of C is the sum of B[k] * A[i][k] for every non-zero A[i][k]. Each
+ *    working thread sums into its own dense accumulator with a list of touched columns, so no
+ *    locking is needed, and clearing it costs only the touched columns.
+ */
+public class SparseMatrixMultiplication {
+  private static final int DEFAULT_ROW_BLOCK = 64;
+
+  private final ExecutorService threadPool;
+  private final int threadAmount;
+
+  /**
+   * Run on the common fork-join pool.
+   */
+  public SparseMatrixMultiplication() {
+    this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+  }
+
+  /**
+   * Run on the given pool with the given amount of working threads.
+   */
+  public SparseMatrixMultiplication(ExecutorService threadPool, int threadAmount) {
+    this.threadPool = threadPool;
+    this.threadAmount = Math.max(threadAmount, 1);
+  }
+
+  /**
+   * Calculate y = A * x.
+   */
+  public int[] multiplyVector(SparseIntMatrix matrixA, int[] vecX) throws InterruptedException {
+    if (matrixA.getCols() != vecX.length) {
+      throw new ArithmeticException("Column of matrixA does not match length of vector");
+    }
+
+    int[] rowPtr = matrixA.getRowPtr();
+    int[] colIdx = matrixA.getColIdx();
+    int[] values = matrixA.getValues();
+    int[] result = new int[matrixA.getRows()];
+    AtomicInteger rowsAssigned = new AtomicInteger();
+
+    runWorkers(() -> {
+      int begin;
+
+      while ((begin = rowsAssigned.getAndAdd(DEFAULT_ROW_BLOCK)) < result.length) {
+        int end = Math.min(begin + DEFAULT_ROW_BLOCK, result.length);
+
+        for (int i = begin; i < end; i++) {
+          int sum = 0;
+          for (int idx = rowPtr[i]; idx < rowPtr[i + 1]; idx++) {
+            sum += values[idx] * vecX[colIdx[idx]];
+          }
+          result[i] = sum;
+        }
+      }
+      return null;
+    });
+    return result;
+  }
+
+  /**
+   * Calculate C = A * B. Entries of C which sum up to zero are not stored.
+   */
+  public SparseIntMatrix multiplyMatrix(SparseIntMatrix matrixA, SparseIntMatrix matrixB)
+      throws InterruptedException {
+    if (matrixA.getCols() != matrixB.getRows()) {
+      throw new ArithmeticException("Column of matrixA does not match row of matrixB");
+    }
+
+    int rows = matrixA.getRows();
+    int[][] rowCols = new int[rows][];
+    int[][] rowValues = new int[rows][];
+    AtomicInteger rowsAssigned = new AtomicInteger();
+
+    runWorkers(() -> {
+      SpGemmAccumulator accumulator = new SpGemmAccumulator(matrixB.getCols());
+      int begin;
+
+      while ((begin = rowsAssigned.getAndAdd(DEFAULT_ROW_BLOCK)) < rows) {
+        int end = Math.min(begin + DEFAULT_ROW_BLOCK, rows);
+
+        for (int i = begin; i < end; i++) {
+          accumulator.multiplyRow(matrixA, matrixB, i);
+          rowCols[i] = accumulator.getColumns();
+          rowValues[i] = accumulator.getValues(rowCols[i]);
+          accumulator.clear();
+        }
+      }
+      return null;
+    });
+
+    // Concatenate rows into CSR arrays
+    int[] rowPtr = new int[rows + 1];
+    for (int i = 0; i < rows; i++) {
+      rowPtr[i + 1] = rowPtr[i] + rowCols[i].length;
+    }
+
+    int[] colIdx = new int[rowPtr[rows]];
+    int[] values = new int[rowPtr[rows]];
+    for (int i = 0; i < rows; i++) {
+      System.arraycopy(rowCols[i], 0, colIdx, rowPtr[i], rowCols[i].length);
+      System.arraycopy(rowValues[i], 0, values, rowPtr[i], rowValues[i].length);
+    }
+    return new SparseIntMatrix(rows, matrixB.getCols(), rowPtr, colIdx, values);
+  }
+
+  /**
+   * Dense accumulator of one result row, owned by one working thread.
+   */
+  static class SpGemmAccumulator {
+    private int[] sums;
+    private boolean[] touched;
+    private int[] touchedCols;
+    private int touchedAmount;
+
+    SpGemmAccumulator(int cols) {
+      sums = new int[cols];
+      touched = new boolean[cols];
+      touchedCols = new int[cols];
+    }
+
+    void multiplyRow(SparseIntMatrix matrixA, SparseIntMatrix matrixB, int row) {
+      int[] aRowPtr = matrixA.getRowPtr();
+      int[] aColIdx = matrixA.getColIdx();
+      int[] aValues = matrixA.getValues();
+      int[] bRowPtr = matrixB.getRowPtr();
+      int[] bColIdx = matrixB.getColIdx();
+      int[] bValues = matrixB.getValues();
+
+      for (int aIdx = aRowPtr[row]; aIdx < aRowPtr[row + 1]; aIdx++) {
+        int k = aColIdx[aIdx];
+        int aEntry = aValues[aIdx];
+
+        for (int bIdx = bRowPtr[k]; bIdx < bRowPtr[k + 1]; bIdx++) {
+          int col = bColIdx[bIdx];
+
+          if (!touched[col]) {
+            touched[col] = true;
+            touchedCols[touchedAmount++] = col;
+          }
+          sums[col] += aEntry * bValues[bIdx];
+        }
+      }
+    }
+
+    /**
+     * Return the columns of non-zero sums in order.
+     */
+    int[] getColumns() {
+      int nonZeros = 0;
+
+      // Sums that cancel out to zero are dropped here, and need no clearing later
+      for (int i = 0; i < touchedAmount; i++) {
+        int col = touchedCols[i];
+
+        if (sums[col] != 0) {
+          touchedCols[nonZeros++] = col;
+        } else {
+          touched[col] = false;
+        }
+      }
+
+      int[] result = Arrays.copyOf(touchedCols, nonZeros);
+      touchedAmount = nonZeros;
+      Arrays.sort(result);
+      return result;
+    }
+
+    int[] getValues(int[] columns) {
+      int[] result = new int[columns.length];
+
+      for (int i = 0; i < columns.length; i++) {
+        result[i] = sums[columns[i]];
+      }
+      return result;
+    }
+
+    void clear() {
+      for (int i = 0; i < touchedAmount; i++) {
+        sums[touchedCols[i]] = 0;
+        touched[touchedCols[i]] = false;
+      }
+      touchedAmount = 0;
+    }
+  }
+
+  /**
+   * Run the worker on threadAmount threads, and wait until all finished.
+   */
+  private void runWorkers(Callable<Void> worker) throws InterruptedException {
+    List<Future<Void>> futures = new ArrayList<>();
+
+    for (int i = 0; i < threadAmount; i++) {
+      futures.add(threadPool.submit(worker));
+    }
+
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Method to generate a sparse matrix. Each entry is non-zero with the given probability, and
+   * non-zero entries are random number within the given range.
+   */
+  public static SparseIntMatrix generateSparseMatrix(int row, int col, double density,
+                                                     int entryMin, int entryMax) {
+    Random random = new Random();
+    int[] rowPtr = new int[row + 1];
+    int[] colIdx = new int[16];
+    int[] values = new int[16];
+    int nonZeros = 0;
+
+    for (int i = 0; i < row; i++) {
+      for (int j = 0; j < col; j++) {
+        if (random.nextDouble() >= density) {
+          continue;
+        }
+
+        int entry = random.nextInt(entryMax - entryMin + 1) + entryMin;
+        if (entry == 0) {
+          continue;
+        }
+
+        if (nonZeros == values.length) {
+          colIdx = Arrays.copyOf(colIdx, nonZeros * 2);
+          values = Arrays.copyOf(values, nonZeros * 2);
+        }
+        colIdx[nonZeros] = j;
+        values[nonZeros++] = entry;
+      }
+      rowPtr[i + 1] = nonZeros;
+    }
+    return new SparseIntMatrix(row, col, rowPtr, Arrays.copyOf(colIdx, nonZeros),
+        Arrays.copyOf(values, nonZeros));
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int n = 2000;
+    SparseIntMatrix matrixA = generateSparseMatrix(n, n, 0.02, -5, 5);
+    SparseIntMatrix matrixB = generateSparseMatrix(n, n, 0.02, -5, 5);
+    SparseMatrixMultiplication sparseMul = new SparseMatrixMultiplication();
+
+    long startTime = System.currentTimeMillis();
+    SparseIntMatrix resultA = sparseMul.multiplyMatrix(matrixA, matrixB);
+    System.out.println("Sparse runtime: " + (System.currentTimeMillis() - startTime) + "ms.");
+
+    startTime = System.currentTimeMillis();
+    int[][] resultB = MatrixMultiplication.vectorizedMultiplyMatrix(matrixA.toDense(),
+        matrixB.toDense());
+    System.out.println("Dense runtime: " + (System.currentTimeMillis() - startTime) + "ms.");
+
+    System.out.println("Is the result correct: "
+        + MatrixMultiplication.compareMatrix(resultA.toDense(), resultB));
+  }
+}
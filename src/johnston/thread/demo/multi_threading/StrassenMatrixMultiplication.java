@@ -0,0 +1,241 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Use Strassen-Winograd algorithm with fork-join pattern to calculate multiplication of two
+ * n x n matrices. Each level splits both matrices into 4 quadrants, and calculates the result
+ * by 7 quadrant multiplications and 15 additions instead of 8 multiplications, so the runtime
+ * is O(n^2.81).
+ *
+ * The 7 multiplications are independent, so they are forked. When a quadrant is smaller than
+ * the crossover size, the blocked classical kernel in MatrixMultiplication is faster, so the
+ * recursion stops there.
+ *
+ * Int addition and multiplication are exact modulo 2^32, so the result is identical to
+ * MatrixMultiplication.multiplyMatrix() even if it overflows.
+ */
+public class StrassenMatrixMultiplication extends RecursiveTask<int[][]> {
+  public static final int DEFAULT_CROSSOVER = 512;
+  private static final int DEFAULT_BLOCK_SIZE = 64;
+  private static final int TUNING_MIN_SIZE = 64;
+  private static final int TUNING_MAX_SIZE = 2048;
+  private static final int TUNING_ROUNDS = 3;
+
+  private int[][] matrixA;
+  private int[][] matrixB;
+  private int crossover;
+  // Calculate the 7 products one after another in the current thread, for tuning
+  private boolean sequential;
+
+  private StrassenMatrixMultiplication(int[][] matrixA, int[][] matrixB, int crossover,
+                                       boolean sequential) {
+    this.matrixA = matrixA;
+    this.matrixB = matrixB;
+    this.crossover = crossover;
+    this.sequential = sequential;
+  }
+
+  @Override
+  protected int[][] compute() {
+    int n = matrixA.length;
+
+    if (n < crossover || n % 2 != 0) {
+      return classicalMultiply(matrixA, matrixB);
+    }
+
+    int h = n / 2;
+    int[][] a11 = quadrant(matrixA, 0, 0, h);
+    int[][] a12 = quadrant(matrixA, 0, h, h);
+    int[][] a21 = quadrant(matrixA, h, 0, h);
+    int[][] a22 = quadrant(matrixA, h, h, h);
+    int[][] b11 = quadrant(matrixB, 0, 0, h);
+    int[][] b12 = quadrant(matrixB, 0, h, h);
+    int[][] b21 = quadrant(matrixB, h, 0, h);
+    int[][] b22 = quadrant(matrixB, h, h, h);
+
+    int[][] s1 = add(a21, a22);
+    int[][] s2 = subtract(s1, a11);
+    int[][] s3 = subtract(a11, a21);
+    int[][] s4 = subtract(a12, s2);
+    int[][] t1 = subtract(b12, b11);
+    int[][] t2 = subtract(b22, t1);
+    int[][] t3 = subtract(b22, b12);
+    int[][] t4 = subtract(t2, b21);
+
+    StrassenMatrixMultiplication p1 = subTask(a11, b11);
+    StrassenMatrixMultiplication p2 = subTask(a12, b21);
+    StrassenMatrixMultiplication p3 = subTask(s4, b22);
+    StrassenMatrixMultiplication p4 = subTask(a22, t4);
+    StrassenMatrixMultiplication p5 = subTask(s1, t1);
+    StrassenMatrixMultiplication p6 = subTask(s2, t2);
+    StrassenMatrixMultiplication p7 = subTask(s3, t3);
+    if (sequential) {
+      // invoke() runs the task in the current thread
+      for (StrassenMatrixMultiplication product : new StrassenMatrixMultiplication[] {
+          p1, p2, p3, p4, p5, p6, p7}) {
+        product.invoke();
+      }
+    } else {
+      ForkJoinTask.invokeAll(p1, p2, p3, p4, p5, p6, p7);
+    }
+
+    int[][] u2 = add(p1.join(), p6.join());
+    int[][] u3 = add(u2, p7.join());
+    int[][] u4 = add(u2, p5.join());
+    int[][] c11 = add(p1.join(), p2.join());
+    int[][] c12 = add(u4, p3.join());
+    int[][] c21 = subtract(u3, p4.join());
+    int[][] c22 = add(u3, p5.join());
+
+    int[][] result = new int[n][n];
+    copyQuadrant(c11, result, 0, 0);
+    copyQuadrant(c12, result, 0, h);
+    copyQuadrant(c21, result, h, 0);
+    copyQuadrant(c22, result, h, h);
+    return result;
+  }
+
+  private StrassenMatrixMultiplication subTask(int[][] matrixA, int[][] matrixB) {
+    return new StrassenMatrixMultiplication(matrixA, matrixB, crossover, sequential);
+  }
+
+  /**
+   * Calculate A * B on the common fork-join pool. A and B must be square with the same size.
+   */
+  public static int[][] multiply(int[][] matrixA, int[][] matrixB, int crossover) {
+    return multiply(matrixA, matrixB, crossover, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Calculate A * B on the given fork-join pool. A and B must be square with the same size.
+   * Matrices are padded with zero so that every level till the crossover splits evenly.
+   */
+  public static int[][] multiply(int[][] matrixA, int[][] matrixB, int crossover,
+                                 ForkJoinPool forkJoinPool) {
+    int n = matrixA.length;
+
+    if (matrixA[0].length != n || matrixB.length != n || matrixB[0].length != n) {
+      throw new ArithmeticException("Strassen multiplication needs two n x n matrices");
+    }
+    if (crossover < 2) {
+      throw new IllegalArgumentException("Crossover must be at least 2");
+    }
+
+    int paddedSize = getPaddedSize(n, crossover);
+    int[][] result = forkJoinPool.invoke(new StrassenMatrixMultiplication(
+        pad(matrixA, paddedSize), pad(matrixB, paddedSize), crossover, false));
+    return paddedSize == n ? result : quadrant(result, 0, 0, n);
+  }
+
+  /**
+   * Measure on this machine the smallest matrix size where one level of Strassen-Winograd is
+   * faster than the classical kernel. Both run in the current thread: the 7 quadrant products
+   * are calculated one after another instead of forked, so the result doesn't depend on how
+   * many threads the pool has or how busy it is. Sizes are powers of 2 from 64 to 2048, and each
+   * size takes the best of 3 rounds.
+   *
+   * @return The crossover to pass to multiply(). If Strassen never wins, return a size larger
+   * than all tested sizes.
+   */
+  public static int tuneCrossover() {
+    for (int n = TUNING_MIN_SIZE; n <= TUNING_MAX_SIZE; n *= 2) {
+      int[][] matrixA = MatrixMultiplication.generateMatrix(n, n, -5, 5);
+      int[][] matrixB = MatrixMultiplication.generateMatrix(n, n, -5, 5);
+      long classicalTime = Long.MAX_VALUE;
+      long strassenTime = Long.MAX_VALUE;
+
+      for (int i = 0; i < TUNING_ROUNDS; i++) {
+        long startTime = System.nanoTime();
+        classicalMultiply(matrixA, matrixB);
+        classicalTime = Math.min(classicalTime, System.nanoTime() - startTime);
+
+        startTime = System.nanoTime();
+        // Crossover n: this level splits, the 7 quadrant products are classical
+        new StrassenMatrixMultiplication(matrixA, matrixB, n, true).compute();
+        strassenTime = Math.min(strassenTime, System.nanoTime() - startTime);
+      }
+
+      if (strassenTime < classicalTime) {
+        return n;
+      }
+    }
+    return TUNING_MAX_SIZE * 2;
+  }
+
+  /**
+   * Return the smallest size >= n which can be halved evenly until below the crossover.
+   */
+  private static int getPaddedSize(int n, int crossover) {
+    int leafSize = n;
+    int levels = 0;
+
+    while (leafSize >= crossover) {
+      leafSize = (leafSize + 1) / 2;
+      levels++;
+    }
+    return leafSize << levels;
+  }
+
+  private static int[][] classicalMultiply(int[][] matrixA, int[][] matrixB) {
+    int n = matrixA.length;
+    int[][] result = new int[n][n];
+    MatrixMultiplication.multiplyBlock(matrixA, MatrixMultiplication.transposeMatrix(matrixB),
+        result, 0, n, 0, n, 0, n, DEFAULT_BLOCK_SIZE);
+    return result;
+  }
+
+  private static int[][] pad(int[][] matrix, int size) {
+    if (matrix.length == size) {
+      return matrix;
+    }
+
+    int[][] result = new int[size][size];
+    copyQuadrant(matrix, result, 0, 0);
+    return result;
+  }
+
+  /**
+   * Copy the size x size block of the matrix which begins at (row, col).
+   */
+  private static int[][] quadrant(int[][] matrix, int row, int col, int size) {
+    int[][] result = new int[size][size];
+
+    for (int i = 0; i < size; i++) {
+      System.arraycopy(matrix[row + i], col, result[i], 0, size);
+    }
+    return result;
+  }
+
+  private static void copyQuadrant(int[][] src, int[][] dst, int row, int col) {
+    for (int i = 0; i < src.length; i++) {
+      System.arraycopy(src[i], 0, dst[row + i], col, src[i].length);
+    }
+  }
+
+  private static int[][] add(int[][] matrixA, int[][] matrixB) {
+    int n = matrixA.length;
+    int[][] result = new int[n][n];
+
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        result[i][j] = matrixA[i][j] + matrixB[i][j];
+      }
+    }
+    return result;
+  }
+
+  private static int[][] subtract(int[][] matrixA, int[][] matrixB) {
+    int n = matrixA.length;
+    int[][] result = new int[n][n];
+
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        result[i][j] = matrixA[i][j] - matrixB[i][j];
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,267 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.Arrays;
+
+/**
+ * Demo of keeping the angle between two vectors up to date while their entries keep coming.
+ *
+ * The three sums a * b, |a|^2 and |b|^2 are kept as running sums, so the angle can be read in
+ * O(1) after each change:
+ *  - update(idx, a, b) subtracts the old entries and adds the new ones. An index at or past the
+ *    end extends both vectors, with zero entries in between;
+ *  - append(chunkA, chunkB) sums the chunk without the lock, then adds the chunk sums with it.
+ * Subtracting leaves rounding error behind, so the sums are recalculated from the stored entries
+ * after as many updates as there are entries, which is O(1) per update on average.
+ *
+ * All methods are synchronized, so many threads can feed the same object.
+ */
+public class StreamingAngleBetweenTwoVectors {
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private double[] vecA = new double[DEFAULT_CAPACITY];
+  private double[] vecB = new double[DEFAULT_CAPACITY];
+  private int length;
+  private double dotProduct;
+  private double aLengthSquare;
+  private double bLengthSquare;
+  private long updatesSinceRecalculation;
+
+  public synchronized void update(int idx, double valueA, double valueB) {
+    if (idx < 0) {
+      throw new IndexOutOfBoundsException("Index: " + idx + ", length: " + length);
+    }
+    if (idx >= length) {
+      // Entries past length are still zero, so they add nothing to the sums
+      ensureCapacity(idx + 1);
+      length = idx + 1;
+    }
+
+    dotProduct += valueA * valueB - vecA[idx] * vecB[idx];
+    aLengthSquare += valueA * valueA - vecA[idx] * vecA[idx];
+    bLengthSquare += valueB * valueB - vecB[idx] * vecB[idx];
+    vecA[idx] = valueA;
+    vecB[idx] = valueB;
+
+    if (++updatesSinceRecalculation >= length) {
+      recalculate();
+    }
+  }
+
+  public void append(double[] chunkA, double[] chunkB) {
+    if (chunkA.length != chunkB.length) {
+      throw new ArithmeticException("Two vectors have different length.");
+    }
+
+    double chunkDotProduct = 0;
+    double chunkALengthSquare = 0;
+    double chunkBLengthSquare = 0;
+
+    for (int i = 0; i < chunkA.length; i++) {
+      chunkDotProduct += chunkA[i] * chunkB[i];
+      chunkALengthSquare += chunkA[i] * chunkA[i];
+      chunkBLengthSquare += chunkB[i] * chunkB[i];
+    }
+
+    synchronized (this) {
+      ensureCapacity(length + chunkA.length);
+      System.arraycopy(chunkA, 0, vecA, length, chunkA.length);
+      System.arraycopy(chunkB, 0, vecB, length, chunkB.length);
+      length += chunkA.length;
+      dotProduct += chunkDotProduct;
+      aLengthSquare += chunkALengthSquare;
+      bLengthSquare += chunkBLengthSquare;
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > vecA.length) {
+      capacity = Math.max(vecA.length * 2, capacity);
+      vecA = Arrays.copyOf(vecA, capacity);
+      vecB = Arrays.copyOf(vecB, capacity);
+    }
+  }
+
+  /**
+   * Return the angle in degrees, or NaN if either vector has zero length.
+   */
+  public synchronized double getAngle() {
+    return getAngle(dotProduct, aLengthSquare, bLengthSquare);
+  }
+
+  public synchronized int getLength() {
+    return length;
+  }
+
+  /**
+   * Recalculate the running sums from the stored entries to drop the rounding error.
+   */
+  public synchronized void recalculate() {
+    dotProduct = 0;
+    aLengthSquare = 0;
+    bLengthSquare = 0;
+
+    for (int i = 0; i < length; i++) {
+      dotProduct += vecA[i] * vecB[i];
+      aLengthSquare += vecA[i] * vecA[i];
+      bLengthSquare += vecB[i] * vecB[i];
+    }
+    updatesSinceRecalculation = 0;
+  }
+
+  private static double getAngle(double dotProduct, double aLengthSquare, double bLengthSquare) {
+    double cosine = dotProduct / Math.sqrt(aLengthSquare) / Math.sqrt(bLengthSquare);
+    // Rounding of running sums may push cosine slightly out of [-1, 1]
+    return Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, cosine))));
+  }
+
+  /**
+   * Angle between the last windowSize entries of two streams, for watching how it drifts.
+   *
+   * Entries are kept in a ring buffer. Adding an entry to a full window evicts the oldest one,
+   * whose products are subtracted from the running sums. The sums are recalculated from the
+   * window once every windowSize evictions.
+   */
+  public static class SlidingWindow {
+    private final double[] windowA;
+    private final double[] windowB;
+    private int head;
+    private int size;
+    private double dotProduct;
+    private double aLengthSquare;
+    private double bLengthSquare;
+    private int evictionsSinceRecalculation;
+
+    public SlidingWindow(int windowSize) {
+      if (windowSize <= 0) {
+        throw new IllegalArgumentException("Window size must be positive");
+      }
+
+      windowA = new double[windowSize];
+      windowB = new double[windowSize];
+    }
+
+    public synchronized void add(double valueA, double valueB) {
+      int tail = (head + size) % windowA.length;
+
+      if (size == windowA.length) {
+        // Tail is the oldest entry here
+        dotProduct -= windowA[tail] * windowB[tail];
+        aLengthSquare -= windowA[tail] * windowA[tail];
+        bLengthSquare -= windowB[tail] * windowB[tail];
+        head = (head + 1) % windowA.length;
+        evictionsSinceRecalculation++;
+      } else {
+        size++;
+      }
+
+      windowA[tail] = valueA;
+      windowB[tail] = valueB;
+      dotProduct += valueA * valueB;
+      aLengthSquare += valueA * valueA;
+      bLengthSquare += valueB * valueB;
+
+      if (evictionsSinceRecalculation >= windowA.length) {
+        recalculate();
+      }
+    }
+
+    public synchronized void append(double[] chunkA, double[] chunkB) {
+      if (chunkA.length != chunkB.length) {
+        throw new ArithmeticException("Two vectors have different length.");
+      }
+
+      for (int i = 0; i < chunkA.length; i++) {
+        add(chunkA[i], chunkB[i]);
+      }
+    }
+
+    /**
+     * Return the angle of the entries in the window in degrees.
+     */
+    public synchronized double getAngle() {
+      return StreamingAngleBetweenTwoVectors.getAngle(dotProduct, aLengthSquare, bLengthSquare);
+    }
+
+    public synchronized int getSize() {
+      return size;
+    }
+
+    private void recalculate() {
+      dotProduct = 0;
+      aLengthSquare = 0;
+      bLengthSquare = 0;
+
+      for (int i = 0; i < size; i++) {
+        dotProduct += windowA[i] * windowB[i];
+        aLengthSquare += windowA[i] * windowA[i];
+        bLengthSquare += windowB[i] * windowB[i];
+      }
+      evictionsSinceRecalculation = 0;
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int threadAmount = 4;
+    int chunkSize = 10000;
+    int chunksPerThread = 50;
+    StreamingAngleBetweenTwoVectors streamingAngle = new StreamingAngleBetweenTwoVectors();
+    Thread[] threads = new Thread[threadAmount];
+
+    long startTime = System.currentTimeMillis();
+    for (int t = 0; t < threadAmount; t++) {
+      int threadIdx = t;
+      threads[t] = new Thread(() -> {
+        for (int c = 0; c < chunksPerThread; c++) {
+          long seed = (long) threadIdx * chunksPerThread + c;
+          streamingAngle.append(
+              AngleBetweenTwoVectors.getRandomVector(chunkSize, -10, 10, seed),
+              AngleBetweenTwoVectors.getRandomVector(chunkSize, -10, 10, -1 - seed));
+        }
+      }, "Appending Thread " + t);
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    System.out.println("Multi thread appending runtime: "
+        + (System.currentTimeMillis() - startTime) + "ms.");
+
+    for (int i = 0; i < 100000; i++) {
+      streamingAngle.update(i, i % 7, i % 5);
+    }
+
+    double[] vecA = Arrays.copyOf(streamingAngle.vecA, streamingAngle.getLength());
+    double[] vecB = Arrays.copyOf(streamingAngle.vecB, streamingAngle.getLength());
+    System.out.println("Is the result correct: " + (Math.abs(streamingAngle.getAngle()
+        - AngleBetweenTwoVectors.getAngleBetweenTwoVectors(vecA, vecB)) < 0.001));
+
+    // Build vectors from (index, a, b) updates only, every third index skipped and left zero
+    StreamingAngleBetweenTwoVectors updatedAngle = new StreamingAngleBetweenTwoVectors();
+    double[] expectedA = new double[30000];
+    double[] expectedB = new double[30000];
+    for (int i = expectedA.length - 1; i >= 0; i--) {
+      if (i % 3 != 1) {
+        expectedA[i] = i % 11 - 5;
+        expectedB[i] = i % 13 - 6;
+        updatedAngle.update(i, expectedA[i], expectedB[i]);
+      }
+    }
+    System.out.println("Is the result of updates correct: "
+        + (updatedAngle.getLength() == expectedA.length
+        && Math.abs(updatedAngle.getAngle() - AngleBetweenTwoVectors.getAngleBetweenTwoVectors(
+        expectedA, expectedB)) < 0.001));
+
+    // Window of the last 1000 entries, while stream B turns from noise to a copy of stream A
+    SlidingWindow window = new SlidingWindow(1000);
+    double[] streamA = AngleBetweenTwoVectors.getRandomVector(10000, -10, 10, 1);
+    double[] streamB = AngleBetweenTwoVectors.getRandomVector(10000, -10, 10, 2);
+    for (int i = 0; i < streamA.length; i++) {
+      double weight = (double) i / streamA.length;
+      window.add(streamA[i], weight * streamA[i] + (1 - weight) * streamB[i]);
+
+      if ((i + 1) % 2000 == 0) {
+        System.out.println("Window angle after " + (i + 1) + " entries: " + window.getAngle());
+      }
+    }
+  }
+}
@@ -0,0 +1,389 @@
+package johnston.thread.demo.multi_threading;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Demo of finding the stored vectors with the smallest angles to a query vector.
+ *
+ * Vectors are stored row by row in contiguous double[] blocks of about 8MB each, and the length of
+ * each is calculated once when it's added, so a query only needs the dot products:
+ * cos = a * b / (|a| * |b|). Blocks are never copied when the store grows, and millions of rows
+ * don't need one array longer than the int index limit.
+ *
+ * Working threads claim blocks of rows from an atomic counter. Each thread keeps its own bounded
+ * heap of the best k rows per query, so there is no locking, and the heaps are merged once at the
+ * end. A batch of queries is scored block by block, so a block of rows is read from memory once
+ * for all queries.
+ */
+public class VectorStore {
+  private static final int DEFAULT_CAPACITY = 1024;
+  private static final int DEFAULT_ROW_BLOCK = 256;
+  private static final int STORAGE_BLOCK_ENTRIES = 1 << 20;
+  // Some JVMs can't allocate arrays up to Integer.MAX_VALUE
+  private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+  private final int dimension;
+  private final ExecutorService threadPool;
+  private final int threadAmount;
+  // Rows of each storage block
+  private final int blockRows;
+  private double[][] blocks;
+  private double[] norms;
+  private int size;
+
+  /**
+   * Run queries on the common fork-join pool.
+   */
+  public VectorStore(int dimension) {
+    this(dimension, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+  }
+
+  /**
+   * Run queries on the given pool with the given amount of working threads.
+   */
+  public VectorStore(int dimension, ExecutorService threadPool, int threadAmount) {
+    if (dimension <= 0) {
+      throw new IllegalArgumentException("Dimension must be positive");
+    }
+
+    this.dimension = dimension;
+    this.threadPool = threadPool;
+    this.threadAmount = Math.max(threadAmount, 1);
+    this.blockRows = Math.max(1, STORAGE_BLOCK_ENTRIES / dimension);
+    this.blocks = new double[1][];
+    this.norms = new double[DEFAULT_CAPACITY];
+  }
+
+  /**
+   * A stored vector and its angle to the query.
+   */
+  public static class Match {
+    private final int index;
+    private final double angle;
+
+    Match(int index, double angle) {
+      this.index = index;
+      this.angle = angle;
+    }
+
+    /**
+     * Return the index of the vector in the order it was added.
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * Return the angle in degrees.
+     */
+    public double getAngle() {
+      return angle;
+    }
+
+    @Override
+    public String toString() {
+      return index + ": " + angle;
+    }
+  }
+
+  /**
+   * Add a copy of the vector, and return its index.
+   */
+  public synchronized int add(double[] vector) {
+    checkDimension(vector);
+
+    if (size == MAX_SIZE) {
+      throw new IllegalStateException("Vector store is full: " + MAX_SIZE + " vectors");
+    }
+    if (size == norms.length) {
+      norms = Arrays.copyOf(norms, (int) Math.min((long) size * 2, MAX_SIZE));
+    }
+
+    int blockIdx = size / blockRows;
+    if (blockIdx == blocks.length) {
+      blocks = Arrays.copyOf(blocks, blocks.length * 2);
+    }
+    if (blocks[blockIdx] == null) {
+      blocks[blockIdx] = new double[blockRows * dimension];
+    }
+
+    System.arraycopy(vector, 0, blocks[blockIdx], (size % blockRows) * dimension, dimension);
+    norms[size] = Math.sqrt(dot(vector, 0, vector));
+    return size++;
+  }
+
+  public void addAll(double[][] vectors) {
+    for (double[] vector : vectors) {
+      add(vector);
+    }
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * Return the k stored vectors with the smallest angles to the query, smallest first. Vectors of
+   * zero length have no angle and are skipped.
+   */
+  public List<Match> findNearest(double[] query, int k) throws InterruptedException {
+    return findNearest(new double[][] {query}, k).get(0);
+  }
+
+  /**
+   * Return the k nearest vectors of each query in one pass over the store.
+   */
+  public List<List<Match>> findNearest(double[][] queries, int k) throws InterruptedException {
+    if (k <= 0) {
+      throw new IllegalArgumentException("k must be positive");
+    }
+
+    double[] queryNorms = new double[queries.length];
+    for (int q = 0; q < queries.length; q++) {
+      checkDimension(queries[q]);
+      queryNorms[q] = Math.sqrt(dot(queries[q], 0, queries[q]));
+    }
+
+    // Rows added during the query are not seen
+    double[][] storeBlocks;
+    double[] storeNorms;
+    int storeSize;
+    synchronized (this) {
+      storeBlocks = blocks;
+      storeNorms = norms;
+      storeSize = size;
+    }
+
+    AtomicInteger rowsAssigned = new AtomicInteger();
+    Callable<BoundedHeap[]> worker = () -> {
+      BoundedHeap[] heaps = new BoundedHeap[queries.length];
+      for (int q = 0; q < queries.length; q++) {
+        heaps[q] = new BoundedHeap(k);
+      }
+
+      int begin;
+      while ((begin = rowsAssigned.getAndAdd(DEFAULT_ROW_BLOCK)) < storeSize) {
+        int end = Math.min(begin + DEFAULT_ROW_BLOCK, storeSize);
+
+        for (int q = 0; q < queries.length; q++) {
+          if (queryNorms[q] == 0) {
+            continue;
+          }
+
+          for (int row = begin; row < end; row++) {
+            if (storeNorms[row] == 0) {
+              continue;
+            }
+
+            double cosine = dot(queries[q], (row % blockRows) * dimension,
+                storeBlocks[row / blockRows]) / (queryNorms[q] * storeNorms[row]);
+            heaps[q].offer(row, cosine);
+          }
+        }
+      }
+      return heaps;
+    };
+
+    List<Future<BoundedHeap[]>> futures = new ArrayList<>();
+    for (int i = 0; i < threadAmount; i++) {
+      futures.add(threadPool.submit(worker));
+    }
+
+    BoundedHeap[] merged = new BoundedHeap[queries.length];
+    for (int q = 0; q < queries.length; q++) {
+      merged[q] = new BoundedHeap(k);
+    }
+
+    try {
+      for (Future<BoundedHeap[]> future : futures) {
+        BoundedHeap[] heaps = future.get();
+
+        for (int q = 0; q < queries.length; q++) {
+          merged[q].offerAll(heaps[q]);
+        }
+      }
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+
+    List<List<Match>> results = new ArrayList<>(queries.length);
+    for (BoundedHeap heap : merged) {
+      results.add(heap.toMatches());
+    }
+    return results;
+  }
+
+  /**
+   * Min-heap of the k largest cosines seen so far. The root is the worst kept row, so a new row
+   * only needs to beat the root. Equal cosines keep the smaller index, so the result doesn't
+   * depend on which thread scored which row.
+   */
+  static class BoundedHeap {
+    private final int capacity;
+    private final int[] indices;
+    private final double[] cosines;
+    private int size;
+
+    BoundedHeap(int capacity) {
+      this.capacity = capacity;
+      this.indices = new int[capacity];
+      this.cosines = new double[capacity];
+    }
+
+    void offer(int index, double cosine) {
+      if (size < capacity) {
+        indices[size] = index;
+        cosines[size] = cosine;
+        siftUp(size++);
+      } else if (isWorse(0, index, cosine)) {
+        indices[0] = index;
+        cosines[0] = cosine;
+        siftDown(0);
+      }
+    }
+
+    void offerAll(BoundedHeap other) {
+      for (int i = 0; i < other.size; i++) {
+        offer(other.indices[i], other.cosines[i]);
+      }
+    }
+
+    /**
+     * Return the rows from the smallest angle to the largest.
+     */
+    List<Match> toMatches() {
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (x, y) -> isWorse(y, indices[x], cosines[x]) ? -1
+          : isWorse(x, indices[y], cosines[y]) ? 1 : 0);
+
+      List<Match> matches = new ArrayList<>(size);
+      for (int i : order) {
+        // Rounding may push cosine slightly out of [-1, 1]
+        double cosine = Math.max(-1, Math.min(1, cosines[i]));
+        matches.add(new Match(indices[i], Math.toDegrees(Math.acos(cosine))));
+      }
+      return matches;
+    }
+
+    /**
+     * Return true if heap entry i is worse than the given row.
+     */
+    private boolean isWorse(int i, int index, double cosine) {
+      return cosines[i] < cosine || (cosines[i] == cosine && indices[i] > index);
+    }
+
+    private void siftUp(int i) {
+      while (i > 0) {
+        int parent = (i - 1) / 2;
+
+        if (!isWorse(i, indices[parent], cosines[parent])) {
+          return;
+        }
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void siftDown(int i) {
+      while (true) {
+        int worst = i;
+        int left = 2 * i + 1;
+        int right = left + 1;
+
+        if (left < size && isWorse(left, indices[worst], cosines[worst])) {
+          worst = left;
+        }
+        if (right < size && isWorse(right, indices[worst], cosines[worst])) {
+          worst = right;
+        }
+        if (worst == i) {
+          return;
+        }
+        swap(i, worst);
+        i = worst;
+      }
+    }
+
+    private void swap(int i, int j) {
+      int index = indices[i];
+      indices[i] = indices[j];
+      indices[j] = index;
+
+      double cosine = cosines[i];
+      cosines[i] = cosines[j];
+      cosines[j] = cosine;
+    }
+  }
+
+  /**
+   * Return the dot product of vector and the row of data beginning at offset.
+   */
+  private double dot(double[] vector, int offset, double[] data) {
+    double sum = 0;
+
+    for (int i = 0; i < dimension; i++) {
+      sum += vector[i] * data[offset + i];
+    }
+    return sum;
+  }
+
+  private void checkDimension(double[] vector) {
+    if (vector.length != dimension) {
+      throw new ArithmeticException("Vector length does not match dimension of the store.");
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int dimension = 128;
+    int storeSize = 500000;
+    int k = 10;
+    VectorStore store = new VectorStore(dimension);
+
+    for (int i = 0; i < storeSize; i++) {
+      store.add(AngleBetweenTwoVectors.getRandomVector(dimension, -10, 10, i));
+    }
+
+    double[][] queries = new double[16][];
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = AngleBetweenTwoVectors.getRandomVector(dimension, -10, 10, -1 - i);
+    }
+
+    long startTime = System.currentTimeMillis();
+    List<List<Match>> results = store.findNearest(queries, k);
+    System.out.println("Batch query runtime: " + (System.currentTimeMillis() - startTime)
+        + "ms.");
+    System.out.println("Nearest of query 0: " + results.get(0));
+
+    // Compare with one angle at a time
+    startTime = System.currentTimeMillis();
+    double[] angles = new double[storeSize];
+    for (int i = 0; i < storeSize; i++) {
+      angles[i] = AngleBetweenTwoVectors.getAngleBetweenTwoVectors(queries[0],
+          AngleBetweenTwoVectors.getRandomVector(dimension, -10, 10, i));
+    }
+    System.out.println("Pairwise runtime of query 0: " + (System.currentTimeMillis() - startTime)
+        + "ms.");
+
+    Arrays.sort(angles);
+    boolean isCorrect = true;
+    for (int i = 0; i < k; i++) {
+      isCorrect &= Math.abs(angles[i] - results.get(0).get(i).getAngle()) < 0.001;
+    }
+    System.out.println("Is the result correct: " + isCorrect);
+  }
+}
@@ -0,0 +1,87 @@
+package johnston.thread.demo.multi_threading.merge_sort;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join merge sort without allocation in the recursion.
+ *
+ * ForkJoinMergeSort copies both halves into new arrays at every level, which allocates
+ * O(n log n) in total. This one sorts index ranges, and uses one buffer of the same length as the
+ * array. Both start with the same entries. A task sorts its range into dst: its two subtasks sort
+ * their halves into src, with the roles of the arrays swapped, and the halves are merged back into
+ * dst. A range of at most threshold entries is sorted by Arrays.sort() in place, and since no
+ * level above it has written to that range yet, it holds the original entries in both arrays.
+ *
+ * The halves are merged by ParallelMerge, so the last merges of long halves don't run on a single
+ * core.
+ */
+public class BufferedForkJoinMergeSort extends RecursiveAction {
+  public static final int DEFAULT_THRESHOLD = 1 << 13;
+
+  private final int[] src;
+  private final int[] dst;
+  private final int begin;
+  private final int end;
+  private final int threshold;
+
+  BufferedForkJoinMergeSort(int[] src, int[] dst, int begin, int end, int threshold) {
+    this.src = src;
+    this.dst = dst;
+    this.begin = begin;
+    this.end = end;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Sort the array on the common fork-join pool.
+   */
+  public static void sort(int[] array) {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    sort(array, new int[array.length], getThreshold(array.length, pool), pool);
+  }
+
+  /**
+   * Return a threshold which gives each thread of the pool about 4 leaves, like
+   * Arrays.parallelSort(). Fewer, larger leaves mean fewer merge passes over the array.
+   */
+  public static int getThreshold(int length, ForkJoinPool pool) {
+    return Math.max(DEFAULT_THRESHOLD, length / (pool.getParallelism() << 2));
+  }
+
+  /**
+   * Sort the array on the given pool. The buffer must be at least as long as the array, and can
+   * be reused by the next sort. Ranges of at most threshold entries are sorted in one thread.
+   */
+  public static void sort(int[] array, int[] buffer, int threshold, ForkJoinPool pool) {
+    if (buffer.length < array.length) {
+      throw new IllegalArgumentException("Buffer is shorter than array");
+    }
+    if (threshold < 1) {
+      throw new IllegalArgumentException("Threshold must be positive");
+    }
+
+    System.arraycopy(array, 0, buffer, 0, array.length);
+    pool.invoke(new BufferedForkJoinMergeSort(buffer, array, 0, array.length, threshold));
+  }
+
+  @Override
+  protected void compute() {
+    if (end - begin <= threshold) {
+      Arrays.sort(dst, begin, end);
+      return;
+    }
+
+    int mid = (begin + end) >>> 1;
+    invokeAll(new BufferedForkJoinMergeSort(dst, src, begin, mid, threshold),
+        new BufferedForkJoinMergeSort(dst, src, mid, end, threshold));
+
+    // Already in order: the halves just need copying
+    if (src[mid - 1] <= src[mid]) {
+      System.arraycopy(src, begin, dst, begin, end - begin);
+      return;
+    }
+    new ParallelMerge(src, begin, mid, src, mid, end, dst, begin).invoke();
+  }
+}
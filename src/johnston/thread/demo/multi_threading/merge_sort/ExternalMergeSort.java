@@ -0,0 +1,471 @@
+package johnston.thread.demo.multi_threading.merge_sort;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Sort a file of keys which is larger than the heap.
+ *
+ * File format: int or long keys, little-endian, without header.
+ *
+ * 1. The file is read chunk by chunk through memory-mapped regions. Each chunk is sorted in heap
+ *    by the fork-join merge sorts (BufferedForkJoinMergeSort for int, ParallelSorts for long) and
+ *    written to a temporary run file. The chunk array and its buffer are reused, so the heap
+ *    holds 2 * chunkBytes whatever the file size. A file of one chunk is written to the output
+ *    directly.
+ * 2. The runs are merged by a loser tree: each run is read through its own ioBufferBytes buffer,
+ *    and each key written costs log2(k) comparisons for k runs. If there are more than
+ *    maxMergeWays runs, groups of them are merged into longer runs first.
+ */
+public class ExternalMergeSort {
+  public static final long DEFAULT_CHUNK_BYTES = 256L << 20;
+  public static final int DEFAULT_IO_BUFFER_BYTES = 1 << 20;
+  public static final int DEFAULT_MAX_MERGE_WAYS = 256;
+  // Limit of FileChannel.map() is 2GB, and a chunk is an array
+  private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+  private final ForkJoinPool pool;
+  private final Path tempDirectory;
+  private long chunkBytes = DEFAULT_CHUNK_BYTES;
+  private int ioBufferBytes = DEFAULT_IO_BUFFER_BYTES;
+  private int maxMergeWays = DEFAULT_MAX_MERGE_WAYS;
+
+  /**
+   * Sort chunks on the common fork-join pool, and write runs to the default temporary directory.
+   */
+  public ExternalMergeSort() {
+    this(ForkJoinPool.commonPool(), Paths.get(System.getProperty("java.io.tmpdir")));
+  }
+
+  public ExternalMergeSort(ForkJoinPool pool, Path tempDirectory) {
+    this.pool = pool;
+    this.tempDirectory = tempDirectory;
+  }
+
+  public long getChunkBytes() {
+    return chunkBytes;
+  }
+
+  /**
+   * Set the bytes of keys sorted in heap at a time.
+   */
+  public void setChunkBytes(long chunkBytes) {
+    if (chunkBytes < Long.BYTES || chunkBytes > MAX_CHUNK_BYTES) {
+      throw new IllegalArgumentException("Chunk bytes must be in [8, " + MAX_CHUNK_BYTES + "]");
+    }
+    this.chunkBytes = chunkBytes;
+  }
+
+  public int getIoBufferBytes() {
+    return ioBufferBytes;
+  }
+
+  /**
+   * Set the buffer size of each run read or written.
+   */
+  public void setIoBufferBytes(int ioBufferBytes) {
+    if (ioBufferBytes < Long.BYTES) {
+      throw new IllegalArgumentException("IO buffer bytes must be at least 8");
+    }
+    this.ioBufferBytes = ioBufferBytes;
+  }
+
+  public int getMaxMergeWays() {
+    return maxMergeWays;
+  }
+
+  /**
+   * Set the amount of runs merged at a time.
+   */
+  public void setMaxMergeWays(int maxMergeWays) {
+    if (maxMergeWays < 2) {
+      throw new IllegalArgumentException("Max merge ways must be at least 2");
+    }
+    this.maxMergeWays = maxMergeWays;
+  }
+
+  /**
+   * Sort the int keys in the input file into the output file, which is created or overwritten.
+   * The output may be the input file itself.
+   */
+  public void sortInts(Path input, Path output) throws IOException {
+    sort(input, output, Integer.BYTES);
+  }
+
+  public void sortLongs(Path input, Path output) throws IOException {
+    sort(input, output, Long.BYTES);
+  }
+
+  private void sort(Path input, Path output, int keyBytes) throws IOException {
+    List<Path> runs = new ArrayList<>();
+    List<Path> mergedRuns = new ArrayList<>();
+
+    try {
+      if (!writeSortedRuns(input, output, keyBytes, runs)) {
+        return;
+      }
+
+      while (runs.size() > maxMergeWays) {
+        List<Path> passRuns = new ArrayList<>();
+
+        for (int i = 0; i < runs.size(); i += maxMergeWays) {
+          List<Path> group = runs.subList(i, Math.min(i + maxMergeWays, runs.size()));
+          Path mergedRun = Files.createTempFile(tempDirectory, "run", ".bin");
+          passRuns.add(mergedRun);
+          mergedRuns.add(mergedRun);
+          mergeRuns(group, mergedRun, keyBytes);
+
+          for (Path run : group) {
+            Files.deleteIfExists(run);
+          }
+        }
+        runs = passRuns;
+      }
+      mergeRuns(runs, output, keyBytes);
+    } finally {
+      for (Path run : runs) {
+        Files.deleteIfExists(run);
+      }
+      for (Path run : mergedRuns) {
+        Files.deleteIfExists(run);
+      }
+    }
+  }
+
+  /**
+   * Sort the input chunk by chunk, and add each run written to runs. Return false if the input
+   * was only one chunk, which is written to output instead.
+   */
+  private boolean writeSortedRuns(Path input, Path output, int keyBytes, List<Path> runs)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size % keyBytes != 0) {
+        throw new IOException("File size is not a multiple of " + keyBytes + " bytes");
+      }
+
+      long keyAmount = size / keyBytes;
+      if (keyAmount == 0) {
+        openForWrite(output).close();
+        return false;
+      }
+
+      int chunkLength = (int) Math.min(chunkBytes / keyBytes, keyAmount);
+      boolean oneChunk = chunkLength == keyAmount;
+      int[] intChunk = null;
+      int[] intBuffer = null;
+      long[] longChunk = null;
+      long[] longBuffer = null;
+
+      if (keyBytes == Integer.BYTES) {
+        intChunk = new int[chunkLength];
+        intBuffer = new int[chunkLength];
+      } else {
+        longChunk = new long[chunkLength];
+        longBuffer = new long[chunkLength];
+      }
+      ByteBuffer ioBuffer = ByteBuffer.allocateDirect(ioBufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+      for (long begin = 0; begin < keyAmount; begin += chunkLength) {
+        int length = (int) Math.min(chunkLength, keyAmount - begin);
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, begin * keyBytes,
+            (long) length * keyBytes);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        // The chunk is copied out of the mapping before the output is opened: output may be the
+        // input itself, and truncating a mapped file makes reading the mapping crash.
+        // The last chunk is padded by max keys, which sort after all keys read
+        if (keyBytes == Integer.BYTES) {
+          mapped.asIntBuffer().get(intChunk, 0, length);
+          Arrays.fill(intChunk, length, chunkLength, Integer.MAX_VALUE);
+          BufferedForkJoinMergeSort.sort(intChunk, intBuffer,
+              BufferedForkJoinMergeSort.getThreshold(chunkLength, pool), pool);
+        } else {
+          mapped.asLongBuffer().get(longChunk, 0, length);
+          Arrays.fill(longChunk, length, chunkLength, Long.MAX_VALUE);
+          ParallelSorts.sort(longChunk, longBuffer, pool);
+        }
+
+        Path run = oneChunk ? output : Files.createTempFile(tempDirectory, "run", ".bin");
+        if (!oneChunk) {
+          runs.add(run);
+        }
+
+        try (FileChannel runChannel = openForWrite(run)) {
+          if (keyBytes == Integer.BYTES) {
+            writeKeys(runChannel, ioBuffer, intChunk, length);
+          } else {
+            writeKeys(runChannel, ioBuffer, longChunk, length);
+          }
+        }
+      }
+      return !oneChunk;
+    }
+  }
+
+  private void mergeRuns(List<Path> runs, Path output, int keyBytes) throws IOException {
+    RunReader[] readers = new RunReader[runs.size()];
+
+    try {
+      for (int i = 0; i < readers.length; i++) {
+        readers[i] = new RunReader(runs.get(i), ioBufferBytes, keyBytes);
+      }
+
+      LoserTree tree = new LoserTree(readers);
+      try (RunWriter writer = new RunWriter(output, ioBufferBytes, keyBytes)) {
+        while (!tree.isEmpty()) {
+          writer.write(readers[tree.getWinner()].getKey());
+          tree.nextWinner();
+        }
+      }
+    } finally {
+      for (RunReader reader : readers) {
+        if (reader != null) {
+          reader.close();
+        }
+      }
+    }
+  }
+
+  private static FileChannel openForWrite(Path path) throws IOException {
+    return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  private static void writeKeys(FileChannel channel, ByteBuffer ioBuffer, int[] keys, int length)
+      throws IOException {
+    int perBuffer = ioBuffer.capacity() / Integer.BYTES;
+
+    for (int i = 0; i < length; i += perBuffer) {
+      int amount = Math.min(perBuffer, length - i);
+      ioBuffer.clear();
+      ioBuffer.asIntBuffer().put(keys, i, amount);
+      ioBuffer.limit(amount * Integer.BYTES);
+      writeFully(channel, ioBuffer);
+    }
+  }
+
+  private static void writeKeys(FileChannel channel, ByteBuffer ioBuffer, long[] keys, int length)
+      throws IOException {
+    int perBuffer = ioBuffer.capacity() / Long.BYTES;
+
+    for (int i = 0; i < length; i += perBuffer) {
+      int amount = Math.min(perBuffer, length - i);
+      ioBuffer.clear();
+      ioBuffer.asLongBuffer().put(keys, i, amount);
+      ioBuffer.limit(amount * Long.BYTES);
+      writeFully(channel, ioBuffer);
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Read the keys of a run one by one through a buffer.
+   */
+  static class RunReader implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int keyBytes;
+    private long key;
+
+    RunReader(Path path, int bufferBytes, int keyBytes) throws IOException {
+      this.channel = FileChannel.open(path, StandardOpenOption.READ);
+      this.buffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+      this.keyBytes = keyBytes;
+      buffer.flip();
+    }
+
+    /**
+     * Read the next key, and return false at the end of the run.
+     */
+    boolean next() throws IOException {
+      if (buffer.remaining() < keyBytes) {
+        buffer.compact();
+        while (buffer.position() < keyBytes) {
+          if (channel.read(buffer) < 0) {
+            break;
+          }
+        }
+        buffer.flip();
+
+        if (buffer.remaining() < keyBytes) {
+          if (buffer.hasRemaining()) {
+            throw new IOException("Run is truncated");
+          }
+          return false;
+        }
+      }
+
+      key = keyBytes == Integer.BYTES ? buffer.getInt() : buffer.getLong();
+      return true;
+    }
+
+    long getKey() {
+      return key;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * Write keys one by one through a buffer.
+   */
+  static class RunWriter implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int keyBytes;
+
+    RunWriter(Path path, int bufferBytes, int keyBytes) throws IOException {
+      this.channel = openForWrite(path);
+      this.buffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+      this.keyBytes = keyBytes;
+    }
+
+    void write(long key) throws IOException {
+      if (buffer.remaining() < keyBytes) {
+        flush();
+      }
+
+      if (keyBytes == Integer.BYTES) {
+        buffer.putInt((int) key);
+      } else {
+        buffer.putLong(key);
+      }
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      writeFully(channel, buffer);
+      buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Loser tree of k runs. Each inner node tree[1, k) holds the loser of the match at that node,
+   * and tree[0] holds the winner, i.e. the run with the smallest current key. After the winner
+   * reads its next key, it only replays the matches on its way to the root.
+   *
+   * Run k is a sentinel which beats every run, and fills the tree before the runs are added. An
+   * exhausted run loses to every other run, so the tree is empty when the winner is exhausted.
+   */
+  static class LoserTree {
+    private final RunReader[] runs;
+    private final boolean[] exhausted;
+    private final int[] tree;
+
+    LoserTree(RunReader[] runs) throws IOException {
+      this.runs = runs;
+      this.exhausted = new boolean[runs.length];
+      this.tree = new int[runs.length];
+
+      Arrays.fill(tree, runs.length);
+      for (int i = runs.length - 1; i >= 0; i--) {
+        exhausted[i] = !runs[i].next();
+        replay(i);
+      }
+    }
+
+    boolean isEmpty() {
+      return exhausted[tree[0]];
+    }
+
+    int getWinner() {
+      return tree[0];
+    }
+
+    /**
+     * Read the next key of the winner, and find the new winner.
+     */
+    void nextWinner() throws IOException {
+      int winner = tree[0];
+      exhausted[winner] = !runs[winner].next();
+      replay(winner);
+    }
+
+    private void replay(int run) {
+      int winner = run;
+
+      for (int node = (run + tree.length) >> 1; node > 0; node >>= 1) {
+        if (beats(tree[node], winner)) {
+          int loser = winner;
+          winner = tree[node];
+          tree[node] = loser;
+        }
+      }
+      tree[0] = winner;
+    }
+
+    private boolean beats(int runA, int runB) {
+      if (runA == runs.length || runB == runs.length) {
+        return runA == runs.length;
+      }
+      if (exhausted[runA] || exhausted[runB]) {
+        return exhausted[runB];
+      }
+      return runs[runA].getKey() < runs[runB].getKey();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int keyAmount = 20000000;
+    int[] keys = new Random().ints(keyAmount).toArray();
+    Path input = Files.createTempFile("keys", ".bin");
+    Path output = Files.createTempFile("sortedKeys", ".bin");
+
+    try {
+      try (FileChannel channel = openForWrite(input)) {
+        writeKeys(channel, ByteBuffer.allocateDirect(DEFAULT_IO_BUFFER_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN), keys, keys.length);
+      }
+
+      // 10 runs of 8MB
+      ExternalMergeSort externalMergeSort = new ExternalMergeSort();
+      externalMergeSort.setChunkBytes(8L << 20);
+      long startTime = System.currentTimeMillis();
+      externalMergeSort.sortInts(input, output);
+      System.out.println("External merge sort runtime: "
+          + (System.currentTimeMillis() - startTime) + "ms.");
+
+      int[] sorted = new int[keyAmount];
+      try (FileChannel channel = FileChannel.open(output, StandardOpenOption.READ)) {
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+            .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(sorted);
+      }
+      Arrays.sort(keys);
+      System.out.println("Is the result correct: " + Arrays.equals(keys, sorted));
+    } finally {
+      Files.deleteIfExists(input);
+      Files.deleteIfExists(output);
+    }
+  }
+}
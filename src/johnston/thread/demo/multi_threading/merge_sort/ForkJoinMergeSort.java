@@ -1,16 +1,40 @@
 package johnston.thread.demo.multi_threading.merge_sort;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
 
 /**
- * Use async FutureTask with fork-join pattern to boost the runtime of merge sort.
+ * Use async FutureTask with fork-join pattern to boost the runtime of merge sort. The two sorted
+ * halves are merged by ParallelMerge, so long merges run on many cores too.
+ *
+ * Before halving, the top task looks for natural runs like TimSort, so nearly sorted input costs
+ * close to O(n):
+ *  1. The array is split into segments, and each thread finds the runs of its segment. A strictly
+ *     descending run is reversed. A run boundary where the entries are in order is dropped;
+ *  2. If there is one run left, the array is already sorted;
+ *  3. Otherwise the runs are merged in a balanced tree like BufferedForkJoinMergeSort, so only
+ *     run boundaries cost merging. Groups of short runs are sorted by Arrays.sort() instead.
+ * If a segment has too many runs, its scan stops and it's sorted by Arrays.sort() into one run.
+ * If all segments do, e.g. random input, the array is halved as usual.
  */
 public class ForkJoinMergeSort extends RecursiveTask<Void> {
+  // Scanning stops if runs are shorter than this on average
+  private static final int MIN_AVERAGE_RUN_LENGTH = 32;
+  private static final int MIN_SEGMENT_LENGTH = 1 << 14;
+
   private int[] array;
+  private final boolean detectRuns;
 
   public ForkJoinMergeSort(int[] array) {
+    this(array, true);
+  }
+
+  private ForkJoinMergeSort(int[] array, boolean detectRuns) {
     this.array = array;
+    this.detectRuns = detectRuns;
   }
 
   @Override
@@ -19,6 +43,22 @@ public class ForkJoinMergeSort extends RecursiveTask<Void> {
       return null;
     }
 
+    if (detectRuns) {
+      ForkJoinPool pool = getPool() != null ? getPool() : ForkJoinPool.commonPool();
+      int[] runBegins = findRuns(array, pool.getParallelism());
+
+      if (runBegins != null) {
+        // runBegins ends with array.length, so one run has 2 entries
+        if (runBegins.length > 2) {
+          int[] buffer = array.clone();
+
+          new RunMerge(buffer, array, runBegins, 0, runBegins.length - 1,
+              BufferedForkJoinMergeSort.getThreshold(array.length, pool)).invoke();
+        }
+        return null;
+      }
+    }
+
     if (array.length == 2) {
       if (array[0] > array[1]) {
         int temp = array[0];
@@ -31,18 +71,143 @@ public class ForkJoinMergeSort extends RecursiveTask<Void> {
     int mid = array.length / 2;
     int[] leftSubArray = Arrays.copyOfRange(array, 0, mid);
     int[] rightSubArray = Arrays.copyOfRange(array, mid, array.length);
-    ForkJoinMergeSort fstTask = new ForkJoinMergeSort(leftSubArray);
-    ForkJoinMergeSort secTask = new ForkJoinMergeSort(rightSubArray);
+    ForkJoinMergeSort fstTask = new ForkJoinMergeSort(leftSubArray, false);
+    ForkJoinMergeSort secTask = new ForkJoinMergeSort(rightSubArray, false);
 
     fstTask.fork();
     secTask.fork();
     fstTask.join();
     secTask.join();
 
-    merge(array, leftSubArray, rightSubArray);
+    new ParallelMerge(leftSubArray, 0, leftSubArray.length, rightSubArray, 0,
+        rightSubArray.length, array, 0).invoke();
     return null;
   }
 
+  /**
+   * Return the begin index of each run and then array.length, or null if the runs of all
+   * segments are too short.
+   */
+  static int[] findRuns(int[] array, int parallelism) {
+    int length = array.length;
+    int segmentAmount = Math.max(1, Math.min(parallelism * 4, length / MIN_SEGMENT_LENGTH));
+    int segmentLength = (length + segmentAmount - 1) / segmentAmount;
+    int[][] segmentRuns = new int[segmentAmount][];
+
+    IntStream.range(0, segmentAmount).parallel().forEach(segment -> {
+      int begin = segment * segmentLength;
+      int end = Math.min(begin + segmentLength, length);
+      int[] runBegins = new int[Math.max(1, (end - begin) / MIN_AVERAGE_RUN_LENGTH)];
+      int runAmount = 0;
+
+      for (int runBegin = begin; runBegin < end; ) {
+        if (runAmount == runBegins.length) {
+          return;
+        }
+        runBegins[runAmount++] = runBegin;
+
+        int runEnd = runBegin + 1;
+        if (runEnd < end && array[runEnd] < array[runBegin]) {
+          while (runEnd < end && array[runEnd] < array[runEnd - 1]) {
+            runEnd++;
+          }
+          reverse(array, runBegin, runEnd);
+        } else {
+          while (runEnd < end && array[runEnd] >= array[runEnd - 1]) {
+            runEnd++;
+          }
+        }
+        runBegin = runEnd;
+      }
+      segmentRuns[segment] = Arrays.copyOf(runBegins, runAmount);
+    });
+
+    if (Arrays.stream(segmentRuns).allMatch(runBegins -> runBegins == null)) {
+      return null;
+    }
+
+    // A segment of short runs is sorted into one run
+    IntStream.range(0, segmentAmount).parallel().forEach(segment -> {
+      if (segmentRuns[segment] == null) {
+        int begin = segment * segmentLength;
+        Arrays.sort(array, begin, Math.min(begin + segmentLength, length));
+        segmentRuns[segment] = new int[] {begin};
+      }
+    });
+
+    int runAmount = 0;
+    for (int[] runBegins : segmentRuns) {
+      runAmount += runBegins.length;
+    }
+
+    // Drop boundaries where the runs on both sides are in order, after all reversing is done
+    int[] runBegins = new int[runAmount + 1];
+    int keptAmount = 0;
+    for (int[] segmentRunBegins : segmentRuns) {
+      for (int runBegin : segmentRunBegins) {
+        if (runBegin == 0 || array[runBegin - 1] > array[runBegin]) {
+          runBegins[keptAmount++] = runBegin;
+        }
+      }
+    }
+    runBegins[keptAmount++] = length;
+    return Arrays.copyOf(runBegins, keptAmount);
+  }
+
+  private static void reverse(int[] array, int begin, int end) {
+    for (int i = begin, j = end - 1; i < j; i++, j--) {
+      int temp = array[i];
+      array[i] = array[j];
+      array[j] = temp;
+    }
+  }
+
+  /**
+   * Merge the runs [runFrom, runTo) into dst, with the roles of src and dst swapped at each level
+   * like BufferedForkJoinMergeSort. Both arrays start with the same entries, so a single run is
+   * already in dst.
+   */
+  static class RunMerge extends RecursiveAction {
+    private final int[] src;
+    private final int[] dst;
+    private final int[] runBegins;
+    private final int runFrom;
+    private final int runTo;
+    private final int threshold;
+
+    RunMerge(int[] src, int[] dst, int[] runBegins, int runFrom, int runTo, int threshold) {
+      this.src = src;
+      this.dst = dst;
+      this.runBegins = runBegins;
+      this.runFrom = runFrom;
+      this.runTo = runTo;
+      this.threshold = threshold;
+    }
+
+    @Override
+    protected void compute() {
+      int begin = runBegins[runFrom];
+      int end = runBegins[runTo];
+
+      if (runTo - runFrom == 1) {
+        return;
+      }
+      if (end - begin <= threshold) {
+        Arrays.sort(dst, begin, end);
+        return;
+      }
+
+      // Split at the run boundary closest after the middle entry
+      int midRun = Math.min(ParallelMerge.lowerBound(runBegins, runFrom + 1, runTo,
+          (begin + end) >>> 1), runTo - 1);
+      int mid = runBegins[midRun];
+      invokeAll(new RunMerge(dst, src, runBegins, runFrom, midRun, threshold),
+          new RunMerge(dst, src, runBegins, midRun, runTo, threshold));
+
+      new ParallelMerge(src, begin, mid, src, mid, end, dst, begin).invoke();
+    }
+  }
+
   static void merge(int[] result, int[] a, int[] b) {
     int aIdx = 0;
     int bIdx = 0;
@@ -23,6 +23,54 @@ public class ForkJoinMergeSortTest {
     System.out.println("Fork-Join time taken: " + ((System.currentTimeMillis() - startMin)) + " ms");
     checkSorted(input);
 
+    // Re-sort with 1% stragglers, which only costs merging across run boundaries
+    for (int i = 0; i < input.length / 100; i++) {
+      input[rand.nextInt(input.length)] = rand.nextInt();
+    }
+    startMin = System.currentTimeMillis();
+    forkJoinPool.invoke(new ForkJoinMergeSort(input));
+    System.out.println("Fork-Join time taken on nearly sorted input: "
+        + ((System.currentTimeMillis() - startMin)) + " ms");
+    checkSorted(input);
+
+    for (int i = 0; i < input.length; i++) {
+      input[i] = rand.nextInt();
+    }
+    startMin = System.currentTimeMillis();
+    BufferedForkJoinMergeSort.sort(input);
+    System.out.println("Buffered fork-join time taken: "
+        + ((System.currentTimeMillis() - startMin)) + " ms");
+    checkSorted(input);
+
+    for (int i = 0; i < input.length; i++) {
+      input[i] = rand.nextInt();
+    }
+    startMin = System.currentTimeMillis();
+    Arrays.parallelSort(input);
+    System.out.println("Arrays.parallelSort() time taken: "
+        + ((System.currentTimeMillis() - startMin)) + " ms");
+    checkSorted(input);
+
+    for (int i = 0; i < input.length; i++) {
+      input[i] = rand.nextInt();
+    }
+    startMin = System.currentTimeMillis();
+    ParallelRadixSort.sort(input);
+    System.out.println("Parallel radix sort time taken: "
+        + ((System.currentTimeMillis() - startMin)) + " ms");
+    checkSorted(input);
+
+    for (int i = 0; i < input.length; i++) {
+      input[i] = rand.nextInt();
+    }
+    startMin = System.currentTimeMillis();
+    ParallelSampleSort.sort(input);
+    System.out.println("Parallel sample sort time taken: "
+        + ((System.currentTimeMillis() - startMin)) + " ms");
+    checkSorted(input);
+
+    parallelSortsBenchmark(rand);
+
     for (int i = 0; i < input.length; i++) {
       input[i] = rand.nextInt();
     }
@@ -39,6 +87,60 @@ public class ForkJoinMergeSortTest {
     checkSorted(input);
   }
 
+  private static void parallelSortsBenchmark(Random rand) {
+    long[] longInput = new long[10000000];
+    for (int i = 0; i < longInput.length; i++) {
+      longInput[i] = rand.nextLong();
+    }
+    Long startMin = System.currentTimeMillis();
+    ParallelSorts.sort(longInput);
+    System.out.println("ParallelSorts long[] time taken: "
+        + ((System.currentTimeMillis() - startMin)) + " ms");
+    checkSorted(longInput);
+
+    // Special values must end up where Arrays.sort() puts them: -0.0 before 0.0, NaN last
+    double[] specials = {Double.NaN, -0.0, 0.0, Double.POSITIVE_INFINITY,
+        Double.NEGATIVE_INFINITY};
+    double[] doubleInput = new double[10000000];
+    for (int i = 0; i < doubleInput.length; i++) {
+      doubleInput[i] = rand.nextInt(100) == 0 ? specials[rand.nextInt(specials.length)]
+          : rand.nextGaussian();
+    }
+    double[] expected = doubleInput.clone();
+    Arrays.sort(expected);
+    startMin = System.currentTimeMillis();
+    ParallelSorts.sort(doubleInput);
+    System.out.println("ParallelSorts double[] time taken: "
+        + ((System.currentTimeMillis() - startMin)) + " ms");
+    System.out.println("Same as Arrays.sort(): " + Arrays.equals(expected, doubleInput));
+
+    // Few distinct keys, so there are many ties. Equal keys must keep the order of their indices
+    int tieLength = 1000000;
+    long[] keys = new long[tieLength];
+    Integer[] indices = new Integer[tieLength];
+    for (int i = 0; i < tieLength; i++) {
+      keys[i] = rand.nextInt(1000);
+      indices[i] = i;
+    }
+    long[] originalKeys = keys.clone();
+    Integer[] byComparator = indices.clone();
+
+    ParallelSorts.sort(byComparator, (x, y) -> Long.compare(originalKeys[x], originalKeys[y]));
+    ParallelSorts.sortByKey(keys, indices);
+    boolean isComparatorStable = true;
+    boolean isByKeyStable = true;
+    for (int i = 1; i < tieLength; i++) {
+      long prevKey = originalKeys[byComparator[i - 1]];
+      long key = originalKeys[byComparator[i]];
+      isComparatorStable &= prevKey < key
+          || (prevKey == key && byComparator[i - 1] < byComparator[i]);
+      isByKeyStable &= keys[i - 1] < keys[i]
+          || (keys[i - 1] == keys[i] && indices[i - 1] < indices[i]);
+    }
+    System.out.println("Is sort(T[], Comparator) stable: " + isComparatorStable);
+    System.out.println("Is sortByKey() stable: " + isByKeyStable);
+  }
+
   private static void simpleMergeSort(int[] array) {
     if (array.length < 2) {
       return;
@@ -69,4 +171,14 @@ public class ForkJoinMergeSortTest {
     }
     System.out.println("Sorted");
   }
+
+  private static void checkSorted(long[] sorted) {
+    for (int i = 1; i < sorted.length; i++) {
+      if (sorted[i - 1] > sorted[i]) {
+        System.out.println("Unsorted, idx: " + i + ", left & right: " + sorted[i - 1] + ","
+            + sorted[i]);
+      }
+    }
+    System.out.println("Sorted");
+  }
 }
@@ -0,0 +1,120 @@
+package johnston.thread.demo.multi_threading.merge_sort;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Merge two sorted runs in parallel.
+ *
+ * Take the middle entry of the longer run, and binary search where it goes in the shorter run.
+ * Every entry before the two split points is not larger than every entry after them, so the two
+ * sides can be merged into their own parts of dst at the same time. Each side splits again until
+ * it's short enough to merge in one thread. Ties keep entries of run a before those of run b.
+ */
+public class ParallelMerge extends RecursiveAction {
+  public static final int DEFAULT_THRESHOLD = 1 << 13;
+
+  private final int[] a;
+  private final int aBegin;
+  private final int aEnd;
+  private final int[] b;
+  private final int bBegin;
+  private final int bEnd;
+  private final int[] dst;
+  private final int dstBegin;
+
+  /**
+   * Merge a[aBegin, aEnd) and b[bBegin, bEnd) into dst from dstBegin. The runs may be parts of
+   * the same array, but must not overlap the part of dst written.
+   */
+  public ParallelMerge(int[] a, int aBegin, int aEnd, int[] b, int bBegin, int bEnd, int[] dst,
+                       int dstBegin) {
+    this.a = a;
+    this.aBegin = aBegin;
+    this.aEnd = aEnd;
+    this.b = b;
+    this.bBegin = bBegin;
+    this.bEnd = bEnd;
+    this.dst = dst;
+    this.dstBegin = dstBegin;
+  }
+
+  @Override
+  protected void compute() {
+    int aLength = aEnd - aBegin;
+    int bLength = bEnd - bBegin;
+
+    if (aLength + bLength <= DEFAULT_THRESHOLD) {
+      merge(a, aBegin, aEnd, b, bBegin, bEnd, dst, dstBegin);
+      return;
+    }
+
+    int aMid;
+    int bMid;
+    if (aLength >= bLength) {
+      aMid = (aBegin + aEnd) >>> 1;
+      // Entries of b equal to a[aMid] go after it
+      bMid = lowerBound(b, bBegin, bEnd, a[aMid]);
+    } else {
+      bMid = (bBegin + bEnd) >>> 1;
+      // Entries of a equal to b[bMid] go before it
+      aMid = upperBound(a, aBegin, aEnd, b[bMid]);
+    }
+
+    int dstMid = dstBegin + (aMid - aBegin) + (bMid - bBegin);
+    invokeAll(new ParallelMerge(a, aBegin, aMid, b, bBegin, bMid, dst, dstBegin),
+        new ParallelMerge(a, aMid, aEnd, b, bMid, bEnd, dst, dstMid));
+  }
+
+  /**
+   * Merge in one thread.
+   */
+  static void merge(int[] a, int aBegin, int aEnd, int[] b, int bBegin, int bEnd, int[] dst,
+                    int dstBegin) {
+    int aIdx = aBegin;
+    int bIdx = bBegin;
+    int resIdx = dstBegin;
+
+    while (aIdx < aEnd && bIdx < bEnd) {
+      if (a[aIdx] <= b[bIdx]) {
+        dst[resIdx++] = a[aIdx++];
+      } else {
+        dst[resIdx++] = b[bIdx++];
+      }
+    }
+
+    System.arraycopy(a, aIdx, dst, resIdx, aEnd - aIdx);
+    System.arraycopy(b, bIdx, dst, resIdx + (aEnd - aIdx), bEnd - bIdx);
+  }
+
+  /**
+   * Return the first index of [begin, end) whose entry is not less than key.
+   */
+  static int lowerBound(int[] array, int begin, int end, int key) {
+    while (begin < end) {
+      int mid = (begin + end) >>> 1;
+
+      if (array[mid] < key) {
+        begin = mid + 1;
+      } else {
+        end = mid;
+      }
+    }
+    return begin;
+  }
+
+  /**
+   * Return the first index of [begin, end) whose entry is greater than key.
+   */
+  static int upperBound(int[] array, int begin, int end, int key) {
+    while (begin < end) {
+      int mid = (begin + end) >>> 1;
+
+      if (array[mid] <= key) {
+        begin = mid + 1;
+      } else {
+        end = mid;
+      }
+    }
+    return begin;
+  }
+}
@@ -0,0 +1,404 @@
+package johnston.thread.demo.multi_threading.merge_sort;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/**
+ * Radix sort of int[] and long[] by 8-bit digits, which needs no comparison at all.
+ *
+ * A long range is split into blocks, one working thread per block:
+ *  1. each thread counts the digits of its block into its own histogram;
+ *  2. prefix sums over digits, then over blocks, give each thread where to put its entries of
+ *     each digit, so
+ *  3. all threads scatter into the buffer at the same time without locking.
+ * Each bucket of the same digit is then sorted by the next digit as its own fork-join task (MSD).
+ * A bucket that is small enough is sorted in one thread by LSD passes from the lowest digit.
+ *
+ * Digits shared by all entries of a range are skipped, so skewed data, e.g. small numbers in an
+ * int[], only costs passes for the digits that differ. The sign bit is flipped in the top digit,
+ * so negative numbers sort first. The array and the buffer swap roles after each scatter, and an
+ * entry is only copied back when the last pass left it in the buffer.
+ */
+public class ParallelRadixSort {
+  private static final int RADIX_BITS = 8;
+  private static final int RADIX = 1 << RADIX_BITS;
+  private static final int DIGIT_MASK = RADIX - 1;
+  private static final int INT_TOP_SHIFT = Integer.SIZE - RADIX_BITS;
+  private static final int LONG_TOP_SHIFT = Long.SIZE - RADIX_BITS;
+  // Ranges up to this length are sorted by one thread
+  private static final int MIN_PARALLEL_LENGTH = 1 << 16;
+  // Ranges up to this length are sorted by Arrays.sort()
+  private static final int SMALL_SORT_LENGTH = 256;
+
+  private ParallelRadixSort() {
+  }
+
+  public static void sort(int[] array) {
+    sort(array, new int[array.length], ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Sort the array on the given pool. The buffer must be at least as long as the array, and can
+   * be reused by the next sort.
+   */
+  public static void sort(int[] array, int[] buffer, ForkJoinPool pool) {
+    if (buffer.length < array.length) {
+      throw new IllegalArgumentException("Buffer is shorter than array");
+    }
+
+    pool.invoke(new IntRadixTask(array, buffer, 0, array.length, INT_TOP_SHIFT, true,
+        getParallelThreshold(array.length, pool), pool.getParallelism()));
+  }
+
+  public static void sort(long[] array) {
+    sort(array, new long[array.length], ForkJoinPool.commonPool());
+  }
+
+  public static void sort(long[] array, long[] buffer, ForkJoinPool pool) {
+    if (buffer.length < array.length) {
+      throw new IllegalArgumentException("Buffer is shorter than array");
+    }
+
+    pool.invoke(new LongRadixTask(array, buffer, 0, array.length, LONG_TOP_SHIFT, true,
+        getParallelThreshold(array.length, pool), pool.getParallelism()));
+  }
+
+  private static int getParallelThreshold(int length, ForkJoinPool pool) {
+    return Math.max(MIN_PARALLEL_LENGTH, length / (pool.getParallelism() << 2));
+  }
+
+  /**
+   * Return 0x80 for the top digit, which flips its sign bit, otherwise 0.
+   */
+  private static int getSignFlip(int shift, int topShift) {
+    return shift == topShift ? RADIX >>> 1 : 0;
+  }
+
+  /**
+   * Turn counts[block][digit] into the first index of each block's entries of each digit, and
+   * return the amount of entries of each digit.
+   */
+  private static int[] toOffsets(int[][] counts, int begin) {
+    int[] totals = new int[RADIX];
+    for (int[] blockCounts : counts) {
+      for (int digit = 0; digit < RADIX; digit++) {
+        totals[digit] += blockCounts[digit];
+      }
+    }
+
+    int digitBegin = begin;
+    for (int digit = 0; digit < RADIX; digit++) {
+      int offset = digitBegin;
+
+      for (int[] blockCounts : counts) {
+        int count = blockCounts[digit];
+        blockCounts[digit] = offset;
+        offset += count;
+      }
+      digitBegin += totals[digit];
+    }
+    return totals;
+  }
+
+  /**
+   * Return true if all entries counted have the same digit.
+   */
+  private static boolean isSingleDigit(int[] totals, int length) {
+    for (int total : totals) {
+      if (total != 0) {
+        return total == length;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Sort [begin, end) by the digit at shift and all digits below it. The entries are in array if
+   * dataInArray, otherwise in buffer. The result ends up in array.
+   */
+  static class IntRadixTask extends RecursiveAction {
+    private final int[] array;
+    private final int[] buffer;
+    private final int begin;
+    private final int end;
+    private final int shift;
+    private final boolean dataInArray;
+    private final int parallelThreshold;
+    private final int parallelism;
+
+    IntRadixTask(int[] array, int[] buffer, int begin, int end, int shift, boolean dataInArray,
+                 int parallelThreshold, int parallelism) {
+      this.array = array;
+      this.buffer = buffer;
+      this.begin = begin;
+      this.end = end;
+      this.shift = shift;
+      this.dataInArray = dataInArray;
+      this.parallelThreshold = parallelThreshold;
+      this.parallelism = parallelism;
+    }
+
+    @Override
+    protected void compute() {
+      int[] src = dataInArray ? array : buffer;
+      int[] dst = dataInArray ? buffer : array;
+      int length = end - begin;
+
+      if (length <= parallelThreshold) {
+        sortInOneThread(src, dst);
+        return;
+      }
+
+      int flip = getSignFlip(shift, INT_TOP_SHIFT);
+      int blockAmount = Math.min(parallelism, (length + MIN_PARALLEL_LENGTH - 1)
+          / MIN_PARALLEL_LENGTH);
+      int blockLength = (length + blockAmount - 1) / blockAmount;
+      int[][] counts = new int[blockAmount][RADIX];
+
+      IntStream.range(0, blockAmount).parallel().forEach(block -> {
+        int[] blockCounts = counts[block];
+        int blockEnd = Math.min(begin + (block + 1) * blockLength, end);
+
+        for (int i = begin + block * blockLength; i < blockEnd; i++) {
+          blockCounts[((src[i] >>> shift) & DIGIT_MASK) ^ flip]++;
+        }
+      });
+
+      int[] totals = toOffsets(counts, begin);
+      if (isSingleDigit(totals, length)) {
+        if (shift > 0) {
+          new IntRadixTask(array, buffer, begin, end, shift - RADIX_BITS, dataInArray,
+              parallelThreshold, parallelism).compute();
+        } else if (!dataInArray) {
+          System.arraycopy(buffer, begin, array, begin, length);
+        }
+        return;
+      }
+
+      IntStream.range(0, blockAmount).parallel().forEach(block -> {
+        int[] offsets = counts[block];
+        int blockEnd = Math.min(begin + (block + 1) * blockLength, end);
+
+        for (int i = begin + block * blockLength; i < blockEnd; i++) {
+          dst[offsets[((src[i] >>> shift) & DIGIT_MASK) ^ flip]++] = src[i];
+        }
+      });
+
+      if (shift == 0) {
+        if (dst != array) {
+          System.arraycopy(buffer, begin, array, begin, length);
+        }
+        return;
+      }
+
+      IntRadixTask[] bucketTasks = new IntRadixTask[RADIX];
+      int bucketAmount = 0;
+      int bucketBegin = begin;
+      for (int digit = 0; digit < RADIX; digit++) {
+        if (totals[digit] > 0) {
+          bucketTasks[bucketAmount++] = new IntRadixTask(array, buffer, bucketBegin,
+              bucketBegin + totals[digit], shift - RADIX_BITS, !dataInArray, parallelThreshold,
+              parallelism);
+        }
+        bucketBegin += totals[digit];
+      }
+      invokeAll(Arrays.asList(bucketTasks).subList(0, bucketAmount));
+    }
+
+    /**
+     * LSD passes over the digits from 0 to shift, with the histograms of all of them counted in
+     * one read.
+     */
+    private void sortInOneThread(int[] src, int[] dst) {
+      int length = end - begin;
+
+      if (length <= SMALL_SORT_LENGTH) {
+        if (src != array) {
+          System.arraycopy(src, begin, array, begin, length);
+        }
+        Arrays.sort(array, begin, end);
+        return;
+      }
+
+      int passAmount = shift / RADIX_BITS + 1;
+      int[][] counts = new int[passAmount][RADIX];
+      for (int i = begin; i < end; i++) {
+        int value = src[i];
+
+        for (int pass = 0; pass < passAmount; pass++) {
+          counts[pass][(value >>> (pass * RADIX_BITS)) & DIGIT_MASK]++;
+        }
+      }
+
+      for (int pass = 0; pass < passAmount; pass++) {
+        int passShift = pass * RADIX_BITS;
+        int flip = getSignFlip(passShift, INT_TOP_SHIFT);
+        int[] offsets = new int[RADIX];
+        int offset = begin;
+
+        // With the sign bit flipped, digit d ^ 0x80 holds the d-th smallest entries
+        for (int digit = 0; digit < RADIX; digit++) {
+          offsets[digit ^ flip] = offset;
+          offset += counts[pass][digit ^ flip];
+        }
+        if (counts[pass][(src[begin] >>> passShift) & DIGIT_MASK] == length) {
+          continue;
+        }
+
+        for (int i = begin; i < end; i++) {
+          dst[offsets[(src[i] >>> passShift) & DIGIT_MASK]++] = src[i];
+        }
+        int[] temp = src;
+        src = dst;
+        dst = temp;
+      }
+
+      if (src != array) {
+        System.arraycopy(src, begin, array, begin, length);
+      }
+    }
+  }
+
+  /**
+   * IntRadixTask for long[].
+   */
+  static class LongRadixTask extends RecursiveAction {
+    private final long[] array;
+    private final long[] buffer;
+    private final int begin;
+    private final int end;
+    private final int shift;
+    private final boolean dataInArray;
+    private final int parallelThreshold;
+    private final int parallelism;
+
+    LongRadixTask(long[] array, long[] buffer, int begin, int end, int shift, boolean dataInArray,
+                  int parallelThreshold, int parallelism) {
+      this.array = array;
+      this.buffer = buffer;
+      this.begin = begin;
+      this.end = end;
+      this.shift = shift;
+      this.dataInArray = dataInArray;
+      this.parallelThreshold = parallelThreshold;
+      this.parallelism = parallelism;
+    }
+
+    @Override
+    protected void compute() {
+      long[] src = dataInArray ? array : buffer;
+      long[] dst = dataInArray ? buffer : array;
+      int length = end - begin;
+
+      if (length <= parallelThreshold) {
+        sortInOneThread(src, dst);
+        return;
+      }
+
+      int flip = getSignFlip(shift, LONG_TOP_SHIFT);
+      int blockAmount = Math.min(parallelism, (length + MIN_PARALLEL_LENGTH - 1)
+          / MIN_PARALLEL_LENGTH);
+      int blockLength = (length + blockAmount - 1) / blockAmount;
+      int[][] counts = new int[blockAmount][RADIX];
+
+      IntStream.range(0, blockAmount).parallel().forEach(block -> {
+        int[] blockCounts = counts[block];
+        int blockEnd = Math.min(begin + (block + 1) * blockLength, end);
+
+        for (int i = begin + block * blockLength; i < blockEnd; i++) {
+          blockCounts[((int) (src[i] >>> shift) & DIGIT_MASK) ^ flip]++;
+        }
+      });
+
+      int[] totals = toOffsets(counts, begin);
+      if (isSingleDigit(totals, length)) {
+        if (shift > 0) {
+          new LongRadixTask(array, buffer, begin, end, shift - RADIX_BITS, dataInArray,
+              parallelThreshold, parallelism).compute();
+        } else if (!dataInArray) {
+          System.arraycopy(buffer, begin, array, begin, length);
+        }
+        return;
+      }
+
+      IntStream.range(0, blockAmount).parallel().forEach(block -> {
+        int[] offsets = counts[block];
+        int blockEnd = Math.min(begin + (block + 1) * blockLength, end);
+
+        for (int i = begin + block * blockLength; i < blockEnd; i++) {
+          dst[offsets[((int) (src[i] >>> shift) & DIGIT_MASK) ^ flip]++] = src[i];
+        }
+      });
+
+      if (shift == 0) {
+        if (dst != array) {
+          System.arraycopy(buffer, begin, array, begin, length);
+        }
+        return;
+      }
+
+      LongRadixTask[] bucketTasks = new LongRadixTask[RADIX];
+      int bucketAmount = 0;
+      int bucketBegin = begin;
+      for (int digit = 0; digit < RADIX; digit++) {
+        if (totals[digit] > 0) {
+          bucketTasks[bucketAmount++] = new LongRadixTask(array, buffer, bucketBegin,
+              bucketBegin + totals[digit], shift - RADIX_BITS, !dataInArray, parallelThreshold,
+              parallelism);
+        }
+        bucketBegin += totals[digit];
+      }
+      invokeAll(Arrays.asList(bucketTasks).subList(0, bucketAmount));
+    }
+
+    private void sortInOneThread(long[] src, long[] dst) {
+      int length = end - begin;
+
+      if (length <= SMALL_SORT_LENGTH) {
+        if (src != array) {
+          System.arraycopy(src, begin, array, begin, length);
+        }
+        Arrays.sort(array, begin, end);
+        return;
+      }
+
+      int passAmount = shift / RADIX_BITS + 1;
+      int[][] counts = new int[passAmount][RADIX];
+      for (int i = begin; i < end; i++) {
+        long value = src[i];
+
+        for (int pass = 0; pass < passAmount; pass++) {
+          counts[pass][(int) (value >>> (pass * RADIX_BITS)) & DIGIT_MASK]++;
+        }
+      }
+
+      for (int pass = 0; pass < passAmount; pass++) {
+        int passShift = pass * RADIX_BITS;
+        int flip = getSignFlip(passShift, LONG_TOP_SHIFT);
+        int[] offsets = new int[RADIX];
+        int offset = begin;
+
+        for (int digit = 0; digit < RADIX; digit++) {
+          offsets[digit ^ flip] = offset;
+          offset += counts[pass][digit ^ flip];
+        }
+        if (counts[pass][(int) (src[begin] >>> passShift) & DIGIT_MASK] == length) {
+          continue;
+        }
+
+        for (int i = begin; i < end; i++) {
+          dst[offsets[(int) (src[i] >>> passShift) & DIGIT_MASK]++] = src[i];
+        }
+        long[] temp = src;
+        src = dst;
+        dst = temp;
+      }
+
+      if (src != array) {
+        System.arraycopy(src, begin, array, begin, length);
+      }
+    }
+  }
+}
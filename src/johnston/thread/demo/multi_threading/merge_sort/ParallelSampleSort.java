@@ -0,0 +1,155 @@
+package johnston.thread.demo.multi_threading.merge_sort;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Sample sort of int[], which moves each entry once before the buckets are sorted, instead of
+ * once per level of merging.
+ *
+ * 1. bucketAmount * oversampling random entries are sorted, and every oversampling-th of them
+ *    is a splitter. More oversampling gives buckets of closer sizes.
+ * 2. Each thread counts how many entries of its block go to each bucket. Prefix sums of the
+ *    counts give each thread where to put its entries, and all threads scatter into the buffer
+ *    at the same time, like ParallelRadixSort.
+ * 3. Each bucket is copied back and sorted by Arrays.sort() as its own task.
+ *
+ * Splitters which appear more than once are kept once, and each splitter has its own equality
+ * bucket for the entries equal to it. So a key repeated in many entries fills an equality
+ * bucket, which needs no sorting, instead of making one bucket too large.
+ */
+public class ParallelSampleSort {
+  public static final int DEFAULT_OVERSAMPLING = 32;
+  public static final int DEFAULT_BUCKETS_PER_THREAD = 4;
+  // Arrays up to this length are sorted by Arrays.sort()
+  private static final int MIN_PARALLEL_LENGTH = 1 << 16;
+  private static final int MIN_BLOCK_LENGTH = 1 << 14;
+
+  private ParallelSampleSort() {
+  }
+
+  public static void sort(int[] array) {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    sort(array, new int[array.length], pool.getParallelism() * DEFAULT_BUCKETS_PER_THREAD,
+        DEFAULT_OVERSAMPLING, pool);
+  }
+
+  /**
+   * Sort the array on the given pool into about bucketAmount buckets. The buffer must be at
+   * least as long as the array, and can be reused by the next sort.
+   */
+  public static void sort(int[] array, int[] buffer, int bucketAmount, int oversampling,
+                          ForkJoinPool pool) {
+    if (buffer.length < array.length) {
+      throw new IllegalArgumentException("Buffer is shorter than array");
+    }
+    if (bucketAmount < 1 || oversampling < 1) {
+      throw new IllegalArgumentException("Bucket amount and oversampling must be positive");
+    }
+
+    if (array.length <= MIN_PARALLEL_LENGTH || bucketAmount == 1) {
+      Arrays.sort(array);
+      return;
+    }
+    pool.invoke(ForkJoinTask.adapt(() ->
+        sortInPool(array, buffer, getSplitters(array, bucketAmount, oversampling),
+            pool.getParallelism())));
+  }
+
+  /**
+   * Return the distinct splitters in ascending order.
+   */
+  static int[] getSplitters(int[] array, int bucketAmount, int oversampling) {
+    int[] sample = new int[(int) Math.min((long) bucketAmount * oversampling, array.length)];
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+
+    for (int i = 0; i < sample.length; i++) {
+      sample[i] = array[random.nextInt(array.length)];
+    }
+    Arrays.sort(sample);
+
+    int[] splitters = new int[bucketAmount - 1];
+    int splitterAmount = 0;
+    for (int i = 1; i < bucketAmount; i++) {
+      int splitter = sample[(int) ((long) i * sample.length / bucketAmount)];
+
+      if (splitterAmount == 0 || splitters[splitterAmount - 1] != splitter) {
+        splitters[splitterAmount++] = splitter;
+      }
+    }
+    return Arrays.copyOf(splitters, splitterAmount);
+  }
+
+  /**
+   * Return the bucket of the value: 2i for values between splitters i - 1 and i, 2i + 1 for
+   * values equal to splitter i.
+   */
+  static int getBucket(int[] splitters, int value) {
+    int begin = 0;
+    int end = splitters.length;
+
+    while (begin < end) {
+      int mid = (begin + end) >>> 1;
+
+      if (splitters[mid] < value) {
+        begin = mid + 1;
+      } else {
+        end = mid;
+      }
+    }
+    return begin < splitters.length && splitters[begin] == value ? 2 * begin + 1 : 2 * begin;
+  }
+
+  private static void sortInPool(int[] array, int[] buffer, int[] splitters, int parallelism) {
+    int length = array.length;
+    int bucketAmount = 2 * splitters.length + 1;
+    int blockAmount = Math.max(1, Math.min(parallelism, length / MIN_BLOCK_LENGTH));
+    int blockLength = (length + blockAmount - 1) / blockAmount;
+    int[][] counts = new int[blockAmount][bucketAmount];
+
+    IntStream.range(0, blockAmount).parallel().forEach(block -> {
+      int[] blockCounts = counts[block];
+      int blockEnd = Math.min((block + 1) * blockLength, length);
+
+      for (int i = block * blockLength; i < blockEnd; i++) {
+        blockCounts[getBucket(splitters, array[i])]++;
+      }
+    });
+
+    // counts[block][bucket] becomes the first index of the block's entries in the bucket
+    int[] bucketBegins = new int[bucketAmount + 1];
+    for (int bucket = 0; bucket < bucketAmount; bucket++) {
+      int offset = bucketBegins[bucket];
+
+      for (int[] blockCounts : counts) {
+        int count = blockCounts[bucket];
+        blockCounts[bucket] = offset;
+        offset += count;
+      }
+      bucketBegins[bucket + 1] = offset;
+    }
+
+    IntStream.range(0, blockAmount).parallel().forEach(block -> {
+      int[] offsets = counts[block];
+      int blockEnd = Math.min((block + 1) * blockLength, length);
+
+      for (int i = block * blockLength; i < blockEnd; i++) {
+        buffer[offsets[getBucket(splitters, array[i])]++] = array[i];
+      }
+    });
+
+    IntStream.range(0, bucketAmount).parallel().forEach(bucket -> {
+      int begin = bucketBegins[bucket];
+      int end = bucketBegins[bucket + 1];
+
+      System.arraycopy(buffer, begin, array, begin, end - begin);
+      // Entries of an equality bucket are all the same
+      if (bucket % 2 == 0) {
+        Arrays.sort(array, begin, end);
+      }
+    });
+  }
+}
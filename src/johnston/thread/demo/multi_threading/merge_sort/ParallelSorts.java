@@ -0,0 +1,415 @@
+package johnston.thread.demo.multi_threading.merge_sort;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/**
+ * Fork-join merge sorts of long[], double[], T[] and long keys with a payload, without boxing.
+ *
+ * They work like BufferedForkJoinMergeSort: ranges of the array and one buffer swap roles at each
+ * level, and sorted halves are merged in parallel by splitting at a binary searched point.
+ *  - long[]: leaves are sorted by Arrays.sort();
+ *  - double[]: each double is mapped to a long in the order of Double.compare(), i.e.
+ *    -0.0 < 0.0 and NaN after positive infinity, then sorted as long[] and mapped back. NaNs come
+ *    back as Double.NaN;
+ *  - T[]: leaves are sorted by Arrays.sort() with the comparator, which is stable, and merges
+ *    keep entries of the left half first on ties, so the whole sort is stable;
+ *  - long keys with payload: the keys are sorted together with an index array, which then
+ *    permutes the payload. Leaves are sorted by a sequential merge sort, so it's stable too.
+ */
+public class ParallelSorts {
+  public static final int DEFAULT_THRESHOLD = 1 << 13;
+  private static final int INSERTION_SORT_THRESHOLD = 32;
+
+  private ParallelSorts() {
+  }
+
+  public static void sort(long[] array) {
+    sort(array, new long[array.length], ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Sort the array on the given pool. The buffer must be at least as long as the array, and can
+   * be reused by the next sort.
+   */
+  public static void sort(long[] array, long[] buffer, ForkJoinPool pool) {
+    if (buffer.length < array.length) {
+      throw new IllegalArgumentException("Buffer is shorter than array");
+    }
+
+    System.arraycopy(array, 0, buffer, 0, array.length);
+    pool.invoke(new LongSortTask(buffer, null, array, null, 0, array.length,
+        getThreshold(array.length, pool)));
+  }
+
+  public static void sort(double[] array) {
+    long[] keys = new long[array.length];
+
+    IntStream.range(0, array.length).parallel().forEach(i -> keys[i] = toSortableLong(array[i]));
+    sort(keys);
+    IntStream.range(0, array.length).parallel().forEach(i -> array[i] = toDouble(keys[i]));
+  }
+
+  /**
+   * Sort the array by the comparator. Equal entries keep their order.
+   */
+  public static <T> void sort(T[] array, Comparator<? super T> comparator) {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    T[] buffer = array.clone();
+
+    pool.invoke(new ObjectSortTask<>(buffer, array, 0, array.length,
+        getThreshold(array.length, pool), comparator));
+  }
+
+  /**
+   * Sort the keys, and move payload[i] along with keys[i]. Entries of equal keys keep their
+   * order.
+   */
+  public static <T> void sortByKey(long[] keys, T[] payload) {
+    if (keys.length != payload.length) {
+      throw new IllegalArgumentException("Keys and payload have different length");
+    }
+
+    int[] order = sortIndicesByKey(keys);
+    T[] original = payload.clone();
+    IntStream.range(0, keys.length).parallel().forEach(i -> payload[i] = original[order[i]]);
+  }
+
+  /**
+   * Sort the keys, and return the original index of each sorted key, which can permute any
+   * number of payload arrays.
+   */
+  public static int[] sortIndicesByKey(long[] keys) {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int[] order = new int[keys.length];
+    Arrays.parallelSetAll(order, i -> i);
+    long[] keyBuffer = keys.clone();
+    int[] orderBuffer = order.clone();
+
+    pool.invoke(new LongSortTask(keyBuffer, orderBuffer, keys, order, 0, keys.length,
+        getThreshold(keys.length, pool)));
+    return order;
+  }
+
+  /**
+   * Map the double to a long, so that comparing longs is the same as Double.compare().
+   * Negative doubles have all bits but the sign flipped, so larger magnitudes sort first.
+   */
+  static long toSortableLong(double value) {
+    long bits = Double.doubleToLongBits(value);
+    return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+  }
+
+  static double toDouble(long sortable) {
+    return Double.longBitsToDouble(sortable ^ ((sortable >> 63) & Long.MAX_VALUE));
+  }
+
+  private static int getThreshold(int length, ForkJoinPool pool) {
+    return Math.max(DEFAULT_THRESHOLD, length / (pool.getParallelism() << 2));
+  }
+
+  /**
+   * Sort long keys of [begin, end) into dst, and move the companion indices with them if given.
+   * With indices, the sort must be stable, so ranges below threshold are not handed to
+   * Arrays.sort(), but sorted by merge sort in this thread.
+   */
+  static class LongSortTask extends RecursiveAction {
+    private final long[] src;
+    private final int[] srcIdx;
+    private final long[] dst;
+    private final int[] dstIdx;
+    private final int begin;
+    private final int end;
+    private final int threshold;
+
+    LongSortTask(long[] src, int[] srcIdx, long[] dst, int[] dstIdx, int begin, int end,
+                 int threshold) {
+      this.src = src;
+      this.srcIdx = srcIdx;
+      this.dst = dst;
+      this.dstIdx = dstIdx;
+      this.begin = begin;
+      this.end = end;
+      this.threshold = threshold;
+    }
+
+    @Override
+    protected void compute() {
+      int length = end - begin;
+
+      if (dstIdx == null && length <= threshold) {
+        Arrays.sort(dst, begin, end);
+        return;
+      }
+      if (length <= INSERTION_SORT_THRESHOLD) {
+        insertionSort();
+        return;
+      }
+
+      int mid = (begin + end) >>> 1;
+      LongSortTask left = new LongSortTask(dst, dstIdx, src, srcIdx, begin, mid, threshold);
+      LongSortTask right = new LongSortTask(dst, dstIdx, src, srcIdx, mid, end, threshold);
+
+      if (length <= threshold) {
+        left.compute();
+        right.compute();
+      } else {
+        invokeAll(left, right);
+      }
+
+      if (src[mid - 1] <= src[mid]) {
+        System.arraycopy(src, begin, dst, begin, length);
+        if (dstIdx != null) {
+          System.arraycopy(srcIdx, begin, dstIdx, begin, length);
+        }
+        return;
+      }
+      new LongMerge(src, srcIdx, begin, mid, mid, end, dst, dstIdx, begin).invoke();
+    }
+
+    private void insertionSort() {
+      for (int i = begin + 1; i < end; i++) {
+        long key = dst[i];
+        int idx = dstIdx[i];
+        int j = i - 1;
+
+        while (j >= begin && dst[j] > key) {
+          dst[j + 1] = dst[j];
+          dstIdx[j + 1] = dstIdx[j];
+          j--;
+        }
+        dst[j + 1] = key;
+        dstIdx[j + 1] = idx;
+      }
+    }
+  }
+
+  /**
+   * ParallelMerge of long keys, moving the companion indices with them if given.
+   */
+  static class LongMerge extends RecursiveAction {
+    private final long[] src;
+    private final int[] srcIdx;
+    private final int aBegin;
+    private final int aEnd;
+    private final int bBegin;
+    private final int bEnd;
+    private final long[] dst;
+    private final int[] dstIdx;
+    private final int dstBegin;
+
+    LongMerge(long[] src, int[] srcIdx, int aBegin, int aEnd, int bBegin, int bEnd, long[] dst,
+              int[] dstIdx, int dstBegin) {
+      this.src = src;
+      this.srcIdx = srcIdx;
+      this.aBegin = aBegin;
+      this.aEnd = aEnd;
+      this.bBegin = bBegin;
+      this.bEnd = bEnd;
+      this.dst = dst;
+      this.dstIdx = dstIdx;
+      this.dstBegin = dstBegin;
+    }
+
+    @Override
+    protected void compute() {
+      int aLength = aEnd - aBegin;
+      int bLength = bEnd - bBegin;
+
+      if (aLength + bLength <= ParallelMerge.DEFAULT_THRESHOLD) {
+        merge();
+        return;
+      }
+
+      int aMid;
+      int bMid;
+      if (aLength >= bLength) {
+        aMid = (aBegin + aEnd) >>> 1;
+        bMid = bBegin;
+        int high = bEnd;
+        // Lower bound: entries of b equal to src[aMid] go after it
+        while (bMid < high) {
+          int mid = (bMid + high) >>> 1;
+          if (src[mid] < src[aMid]) {
+            bMid = mid + 1;
+          } else {
+            high = mid;
+          }
+        }
+      } else {
+        bMid = (bBegin + bEnd) >>> 1;
+        aMid = aBegin;
+        int high = aEnd;
+        // Upper bound: entries of a equal to src[bMid] go before it
+        while (aMid < high) {
+          int mid = (aMid + high) >>> 1;
+          if (src[mid] <= src[bMid]) {
+            aMid = mid + 1;
+          } else {
+            high = mid;
+          }
+        }
+      }
+
+      int dstMid = dstBegin + (aMid - aBegin) + (bMid - bBegin);
+      invokeAll(new LongMerge(src, srcIdx, aBegin, aMid, bBegin, bMid, dst, dstIdx, dstBegin),
+          new LongMerge(src, srcIdx, aMid, aEnd, bMid, bEnd, dst, dstIdx, dstMid));
+    }
+
+    private void merge() {
+      int aIdx = aBegin;
+      int bIdx = bBegin;
+      int resIdx = dstBegin;
+
+      while (aIdx < aEnd && bIdx < bEnd) {
+        int from = src[aIdx] <= src[bIdx] ? aIdx++ : bIdx++;
+        dst[resIdx] = src[from];
+        if (dstIdx != null) {
+          dstIdx[resIdx] = srcIdx[from];
+        }
+        resIdx++;
+      }
+
+      copy(aIdx, aEnd, resIdx);
+      copy(bIdx, bEnd, resIdx + (aEnd - aIdx));
+    }
+
+    private void copy(int from, int to, int dstFrom) {
+      System.arraycopy(src, from, dst, dstFrom, to - from);
+      if (dstIdx != null) {
+        System.arraycopy(srcIdx, from, dstIdx, dstFrom, to - from);
+      }
+    }
+  }
+
+  /**
+   * Stable sort of [begin, end) into dst by the comparator.
+   */
+  static class ObjectSortTask<T> extends RecursiveAction {
+    private final T[] src;
+    private final T[] dst;
+    private final int begin;
+    private final int end;
+    private final int threshold;
+    private final Comparator<? super T> comparator;
+
+    ObjectSortTask(T[] src, T[] dst, int begin, int end, int threshold,
+                   Comparator<? super T> comparator) {
+      this.src = src;
+      this.dst = dst;
+      this.begin = begin;
+      this.end = end;
+      this.threshold = threshold;
+      this.comparator = comparator;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - begin <= threshold) {
+        Arrays.sort(dst, begin, end, comparator);
+        return;
+      }
+
+      int mid = (begin + end) >>> 1;
+      invokeAll(new ObjectSortTask<>(dst, src, begin, mid, threshold, comparator),
+          new ObjectSortTask<>(dst, src, mid, end, threshold, comparator));
+
+      if (comparator.compare(src[mid - 1], src[mid]) <= 0) {
+        System.arraycopy(src, begin, dst, begin, end - begin);
+        return;
+      }
+      new ObjectMerge<>(src, begin, mid, mid, end, dst, begin, comparator).invoke();
+    }
+  }
+
+  /**
+   * ParallelMerge by a comparator. Ties keep entries of run a first.
+   */
+  static class ObjectMerge<T> extends RecursiveAction {
+    private final T[] src;
+    private final int aBegin;
+    private final int aEnd;
+    private final int bBegin;
+    private final int bEnd;
+    private final T[] dst;
+    private final int dstBegin;
+    private final Comparator<? super T> comparator;
+
+    ObjectMerge(T[] src, int aBegin, int aEnd, int bBegin, int bEnd, T[] dst, int dstBegin,
+                Comparator<? super T> comparator) {
+      this.src = src;
+      this.aBegin = aBegin;
+      this.aEnd = aEnd;
+      this.bBegin = bBegin;
+      this.bEnd = bEnd;
+      this.dst = dst;
+      this.dstBegin = dstBegin;
+      this.comparator = comparator;
+    }
+
+    @Override
+    protected void compute() {
+      int aLength = aEnd - aBegin;
+      int bLength = bEnd - bBegin;
+
+      if (aLength + bLength <= ParallelMerge.DEFAULT_THRESHOLD) {
+        merge();
+        return;
+      }
+
+      int aMid;
+      int bMid;
+      if (aLength >= bLength) {
+        aMid = (aBegin + aEnd) >>> 1;
+        bMid = bBegin;
+        int high = bEnd;
+        // Lower bound: entries of b equal to src[aMid] go after it
+        while (bMid < high) {
+          int mid = (bMid + high) >>> 1;
+          if (comparator.compare(src[mid], src[aMid]) < 0) {
+            bMid = mid + 1;
+          } else {
+            high = mid;
+          }
+        }
+      } else {
+        bMid = (bBegin + bEnd) >>> 1;
+        aMid = aBegin;
+        int high = aEnd;
+        // Upper bound: entries of a equal to src[bMid] go before it
+        while (aMid < high) {
+          int mid = (aMid + high) >>> 1;
+          if (comparator.compare(src[mid], src[bMid]) <= 0) {
+            aMid = mid + 1;
+          } else {
+            high = mid;
+          }
+        }
+      }
+
+      int dstMid = dstBegin + (aMid - aBegin) + (bMid - bBegin);
+      invokeAll(new ObjectMerge<>(src, aBegin, aMid, bBegin, bMid, dst, dstBegin, comparator),
+          new ObjectMerge<>(src, aMid, aEnd, bMid, bEnd, dst, dstMid, comparator));
+    }
+
+    private void merge() {
+      int aIdx = aBegin;
+      int bIdx = bBegin;
+      int resIdx = dstBegin;
+
+      while (aIdx < aEnd && bIdx < bEnd) {
+        if (comparator.compare(src[aIdx], src[bIdx]) <= 0) {
+          dst[resIdx++] = src[aIdx++];
+        } else {
+          dst[resIdx++] = src[bIdx++];
+        }
+      }
+
+      System.arraycopy(src, aIdx, dst, resIdx, aEnd - aIdx);
+      System.arraycopy(src, bIdx, dst, resIdx + (aEnd - aIdx), bEnd - bIdx);
+    }
+  }
+}
@@ -3,12 +3,17 @@ package johnston.thread.demo.multi_threading.three_sum_guava;
 import com.google.common.util.concurrent.*;
 
 import javax.annotation.Nullable;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-public class ThreeSumGuava {
+/**
+ * The thread pool lives as long as this object, or is given by the caller and can be shared with
+ * other engines. Close this object to shut down the pool it owns.
+ */
+public class ThreeSumGuava implements AutoCloseable {
   /**
    * Partition the array into 10 parts. The total amount of two sum subtask is
    * 10 + 45 = 55. The first 10 subtasks are finding two sum within the same part,
@@ -17,6 +22,39 @@ public class ThreeSumGuava {
    */
   private static final int DEFAULT_ARRAY_PARTITION_AMOUNT = 10;
 
+  private final ListeningExecutorService gPool;
+  private final boolean ownsThreadPool;
+
+  /**
+   * Create a thread pool with one thread less than CPU cores.
+   */
+  public ThreeSumGuava() {
+    int threadAmount = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor tPool = new ThreadPoolExecutor(
+        threadAmount,
+        threadAmount,
+        0,
+        TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(),
+        runnable -> {
+          Thread thread = new Thread(runnable, "Three Sum Thread " + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    this.gPool = MoreExecutors.listeningDecorator(tPool);
+    this.ownsThreadPool = true;
+  }
+
+  /**
+   * Use the given thread pool. The pool is not shut down by close().
+   */
+  public ThreeSumGuava(ExecutorService threadPool) {
+    this.gPool = MoreExecutors.listeningDecorator(threadPool);
+    this.ownsThreadPool = false;
+  }
+
   static class AccumulativeResult {
     AtomicInteger totalTask = new AtomicInteger(0);
     AtomicInteger finishedTask = new AtomicInteger(0);
@@ -51,16 +89,6 @@ public class ThreeSumGuava {
     sectionsBeginIdx[partitionAmount] = array.length;
 
     AccumulativeResult accuResult = new AccumulativeResult();
-    int threadAmount = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
-    ThreadPoolExecutor tPool = new ThreadPoolExecutor(
-        threadAmount,
-        threadAmount,
-        1,
-        TimeUnit.MILLISECONDS,
-        new LinkedBlockingDeque<>(partitionAmount),
-        new ThreadPoolExecutor.CallerRunsPolicy()
-    );
-    ListeningExecutorService gPool = MoreExecutors.listeningDecorator(tPool);
 
     // Find two sum
     accuResult.totalTask.addAndGet(partitionAmount);// New job++
@@ -88,7 +116,7 @@ public class ThreeSumGuava {
         }
       };
       ListenableFuture<Integer> twoSumFuture = gPool.submit(subTask);
-      Futures.addCallback(twoSumFuture, subTaskHook);
+      Futures.addCallback(twoSumFuture, subTaskHook, MoreExecutors.directExecutor());
     }
 
     while (!accuResult.isResultReady()) {
@@ -96,4 +124,11 @@ public class ThreeSumGuava {
     }
     return (accuResult.getResult() / 3);
   }
+
+  @Override
+  public void close() {
+    if (ownsThreadPool) {
+      gPool.shutdown();
+    }
+  }
 }
@@ -1,31 +1,20 @@
 package johnston.thread.demo.multi_threading.three_sum_guava;
 
+import johnston.thread.demo.multi_threading.ParallelRandomGenerator;
+
 import java.util.Arrays;
-import java.util.Random;
 
 public class ThreeSumUtil {
-  private static Random random = new Random();
-
   public static int[] getRandomArrayUnique(int length) {
-    int[] result = new int[length];
-    int deltaRandomRange = Integer.MAX_VALUE / length;
-    int currVal = Integer.MIN_VALUE + 1;
-
-    // Generate sorted random array. All elements are unique.
-    for (int i = 0; i < length; i++) {
-      result[i] = currVal;
-      currVal += (random.nextInt(deltaRandomRange) + 1);
-    }
-
-    // Shuffle sorted array
-    for (int i = length - 1; i > 0; i--) {
-      int randomIdx = random.nextInt(i + 1);
-      int temp = result[randomIdx];
-      result[randomIdx] = result[i];
-      result[i] = temp;
-    }
+    return getRandomArrayUnique(length, ParallelRandomGenerator.newSeed());
+  }
 
-    return result;
+  /**
+   * Generate an array of distinct random ints in parallel. The same seed always gives the same
+   * array.
+   */
+  public static int[] getRandomArrayUnique(int length, long seed) {
+    return ParallelRandomGenerator.generateUniqueInts(length, seed);
   }
 
   public static int[] getTwoSumTarget(int[] array, int threeSumTarget) {